@@ -1,62 +1,1129 @@
 package com.ocr.pponnx;
 
 import android.content.Context;
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+import android.graphics.RectF;
 import android.util.Log;
 
+import com.ocr.pponnx.ocr.BitmapPool;
+import com.ocr.pponnx.ocr.OcrBenchmark;
+import com.ocr.pponnx.ocr.OcrConfig;
+import com.ocr.pponnx.ocr.OcrDeadline;
+import com.ocr.pponnx.ocr.OcrEnginePool;
+import com.ocr.pponnx.ocr.OcrOptions;
+import com.ocr.pponnx.ocr.OcrProfileComparison;
 import com.ocr.pponnx.ocr.OcrResult;
+import com.ocr.pponnx.ocr.OcrResultListener;
+import com.ocr.pponnx.ocr.OcrUtils;
 import com.ocr.pponnx.ocr.OnnxOcrEngine;
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+import com.ocr.pponnx.server.BoundedInputStream;
+import com.ocr.pponnx.server.ConnectionProbe;
+import com.ocr.pponnx.server.JobManager;
+import com.ocr.pponnx.server.MultipartStream;
+import com.ocr.pponnx.server.OcrExecutor;
+import com.ocr.pponnx.server.OcrReply;
+import com.ocr.pponnx.server.OcrRequest;
+import com.ocr.pponnx.server.OcrResultCache;
+import com.ocr.pponnx.server.QualityGovernor;
 
 import org.json.JSONArray;
+import org.json.JSONException;
 import org.json.JSONObject;
 
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.Writer;
+import java.net.Socket;
+import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.List;
+import java.util.Locale;
 import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import ai.onnxruntime.OrtException;
 import fi.iki.elonen.NanoHTTPD;
 
 public class HttpOcrServer extends NanoHTTPD {
 
+    private static final String MIME_NDJSON = "application/x-ndjson";
+    private static final String MIME_PROMETHEUS = "text/plain; version=0.0.4";
+    private static final int STREAM_PIPE_SIZE = 64 * 1024;
 
-    private final OnnxOcrEngine ocr;
+    /** 连接线程正在处理的 socket，serve() 里取出交给工作线程探测客户端是否断开 */
+    private static final ThreadLocal<Socket> CONNECTION = new ThreadLocal<>();
+
+    private final Context ctx;
+    private final OcrEnginePool engines;
+    private final OcrExecutor executor;
+    private final QualityGovernor governor;
+    /** 整图结果缓存，未开启时为 null */
+    private final OcrResultCache cache;
+    private final JobManager jobs;
+    /** 同一时间只允许一个压测 */
+    private final AtomicBoolean benchRunning = new AtomicBoolean();
+    /** 预热完成（或未开启预热）后为 true */
+    private volatile boolean ready;
+    /** 预热耗时，未完成时为 -1 */
+    private volatile long warmupMs = -1;
 
 
     public HttpOcrServer(int port, Context ctx) throws OrtException {
         super("127.0.0.1", port);
-        ocr = new OnnxOcrEngine(ctx);
+        this.ctx = ctx;
+        if (OcrConfig.Server.PIPELINE) {
+            // 所有工作线程共用一组会话，由流水线各阶段线程执行
+            engines = new OcrEnginePool(ctx, 1,
+                    OcrConfig.Performance.INTRA_OP_THREADS, OcrConfig.Performance.INTER_OP_THREADS, true);
+            engines.enablePipeline(OcrConfig.Server.PIPELINE_QUEUE);
+        } else {
+            // 每个工作线程独占一个引擎
+            engines = new OcrEnginePool(ctx, OcrConfig.Server.WORKER_THREADS,
+                    OcrConfig.Performance.INTRA_OP_THREADS, OcrConfig.Performance.INTER_OP_THREADS);
+        }
+        executor = new OcrExecutor(OcrConfig.Server.WORKER_THREADS, OcrConfig.Server.QUEUE_CAPACITY);
+        cache = OcrConfig.Cache.ENABLED
+                ? new OcrResultCache(OcrConfig.Cache.MAX_ENTRIES, OcrConfig.Cache.MAX_BYTES) : null;
+        governor = new QualityGovernor(executor);
+        jobs = new JobManager(executor, OcrConfig.Server.JOB_MAX_PENDING, OcrConfig.Server.JOB_MAX_PENDING_BYTES,
+                OcrConfig.Server.JOB_MAX_FINISHED, OcrConfig.Server.JOB_RETENTION_MS);
+        registerGauges();
+        startWarmup();
     }
 
+    /**
+     * 后台预热引擎池，期间到达的请求等待引擎归还
+     */
+    private void startWarmup() {
+        if (!OcrConfig.Warmup.ENABLED) {
+            ready = true;
+            return;
+        }
+        Thread thread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    warmupMs = engines.warmUp();
+                } catch (Exception e) {
+                    // 预热失败不影响正常服务，只是前几个请求会慢
+                    Log.e("error", "warmup: ", e);
+                }
+                ready = true;
+            }
+        }, "ocr-warmup");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    @Override
+    public void stop() {
+        super.stop();
+        executor.shutdown();
+    }
+
+    /**
+     * 在工作线程中借出一个引擎执行，结束后归还
+     */
+    private abstract class EngineTask<T> implements Callable<T> {
+        /** 请求到达时间，截止时间从这里开始算（排队时间也计入） */
+        final long createdAt = System.nanoTime();
+
+        @Override
+        public final T call() throws Exception {
+            OnnxOcrEngine ocr = engines.acquire();
+            try {
+                return run(ocr);
+            } finally {
+                engines.release(ocr);
+            }
+        }
+
+        abstract T run(OnnxOcrEngine ocr) throws Exception;
+    }
+
+
+    @Override
+    protected ClientHandler createClientHandler(final Socket socket, InputStream inputStream) {
+        return new ClientHandler(inputStream, socket) {
+            @Override
+            public void run() {
+                CONNECTION.set(socket);
+                try {
+                    super.run();
+                } finally {
+                    CONNECTION.remove();
+                }
+            }
+        };
+    }
 
     @Override
     public Response serve(IHTTPSession session) {
         if (Method.POST.equals(session.getMethod()) && "/ocr".equals(session.getUri())) {
-            try {
-                Map<String, String> body = new HashMap<>();
-                session.parseBody(body);
-                String json = body.get("postData");
-                JSONObject obj = new JSONObject(json);
-                String base64 = obj.getString("image");
-                long l = System.currentTimeMillis();
-                List<OcrResult> results = ocr.runBase64(base64);
-                long times = System.currentTimeMillis() - l;
-                Log.d("HttpOcrServer", "times: " + times + "ms results=" + results);
+            return isStreaming(session) ? serveOcrStream(session) : serveOcr(session);
+        }
+        if (Method.POST.equals(session.getMethod()) && "/det".equals(session.getUri())) {
+            return serveDet(session);
+        }
+        if (Method.POST.equals(session.getMethod()) && "/rec".equals(session.getUri())) {
+            return serveRec(session);
+        }
+        if (Method.POST.equals(session.getMethod()) && "/bench".equals(session.getUri())) {
+            return serveBench(session);
+        }
+        if (Method.POST.equals(session.getMethod()) && "/compare".equals(session.getUri())) {
+            return serveCompare(session);
+        }
+        if (session.getUri().equals("/jobs") || session.getUri().startsWith("/jobs/")) {
+            return serveJobs(session);
+        }
+        if (Method.GET.equals(session.getMethod()) && "/ready".equals(session.getUri())) {
+            return serveReady();
+        }
+        if (Method.GET.equals(session.getMethod()) && "/metrics".equals(session.getUri())) {
+            return newFixedLengthResponse(Response.Status.OK, MIME_PROMETHEUS, OcrMetrics.toPrometheus());
+        }
+        return newFixedLengthResponse("OCR Service Running");
+    }
+
+    private Response serveOcr(final IHTTPSession session) {
+        try {
+            long l = System.currentTimeMillis();
+            final Socket connection = CONNECTION.get();
+            OcrExecutor.Timed<OcrReply> timed = executor.execute(new EngineTask<OcrReply>() {
+                @Override
+                OcrReply run(OnnxOcrEngine ocr) throws Exception {
+                    return runOcr(ocr, session, connection, null, createdAt);
+                }
+            });
+            List<OcrResult> results = timed.value.results;
+            long times = System.currentTimeMillis() - l;
+            OcrMetrics.recordNanos(OcrMetrics.Stage.QUEUE_WAIT, timed.queueMs * 1_000_000L);
+            Log.d("HttpOcrServer", "times: " + times + "ms queue: " + timed.queueMs + "ms cached: "
+                    + timed.value.cached + " results=" + results);
+            long t = System.nanoTime();
+            JSONArray arr = new JSONArray();
+            for (OcrResult r : results) {
+                arr.put(r.toJson());
+            }
+            JSONObject jo = new JSONObject();
+            jo.put("code", Response.Status.OK);
+            jo.put("data", arr);
+            jo.put("times", times);
+            jo.put("queueMs", timed.queueMs);
+            jo.put("cached", timed.value.cached);
+            jo.put("truncated", timed.value.truncated);
+            jo.put("tier", timed.value.tier);
+            String body = jo.toString();
+            OcrMetrics.record(OcrMetrics.Stage.SERIALIZE, t);
+            OcrMetrics.recordNanos(OcrMetrics.Stage.TOTAL, times * 1_000_000L);
+            return newFixedLengthResponse(body);
+        } catch (RejectedExecutionException e) {
+            return rejectResponse();
+        } catch (ExecutionException e) {
+            return failureResponse(e.getCause());
+        } catch (Exception e) {
+            return failureResponse(e);
+        }
+    }
+
+    /**
+     * 只跑检测，返回原图坐标的四边形，客户端可跨帧缓存后只调 /rec
+     */
+    private Response serveDet(final IHTTPSession session) {
+        return serveStage(new EngineTask<JSONObject>() {
+            @Override
+            JSONObject run(OnnxOcrEngine ocr) throws Exception {
+                OcrRequest request = readImage(session);
+                Bitmap bitmap = OnnxOcrEngine.decodeBitmap(request.image);
+                int width = bitmap.getWidth();
+                int height = bitmap.getHeight();
+                List<PointF[]> boxes;
+                try {
+                    boxes = ocr.forProfile(request.options.profile).detect(bitmap);
+                } finally {
+                    BitmapPool.release(bitmap);
+                }
+                JSONArray arr = new JSONArray();
+                for (PointF[] box : boxes) {
+                    JSONArray points = new JSONArray();
+                    for (PointF p : box) {
+                        points.put(new JSONArray().put(Math.round(p.x)).put(Math.round(p.y)));
+                    }
+                    RectF r = OcrUtils.boundsOf(box);
+                    JSONObject o = new JSONObject();
+                    o.put("points", points);
+                    o.put("x", Math.round(r.left));
+                    o.put("y", Math.round(r.top));
+                    o.put("width", Math.round(r.width()));
+                    o.put("height", Math.round(r.height()));
+                    arr.put(o);
+                }
+                JSONObject jo = new JSONObject();
+                jo.put("width", width);
+                jo.put("height", height);
+                jo.put("data", arr);
+                return jo;
+            }
+        });
+    }
+
+    /**
+     * 只跑识别，输入为已裁好的单行图片，按顺序返回 text/score
+     */
+    private Response serveRec(final IHTTPSession session) {
+        return serveStage(new EngineTask<JSONObject>() {
+            @Override
+            JSONObject run(OnnxOcrEngine ocr) throws Exception {
+                List<byte[]> images = readLines(session);
+                List<Bitmap> lines = new ArrayList<>(images.size());
+                for (int i = 0; i < images.size(); i++) {
+                    try {
+                        lines.add(OnnxOcrEngine.decodeBitmap(images.get(i)));
+                    } catch (Exception e) {
+                        throw new BadRequestException(Response.Status.BAD_REQUEST, "invalid image at index " + i);
+                    }
+                }
+                List<OcrResult> results;
+                try {
+                    results = ocr.forProfile(parseOptions(session).profile).recognizeLines(lines);
+                } finally {
+                    for (Bitmap line : lines) {
+                        BitmapPool.release(line);
+                    }
+                }
                 JSONArray arr = new JSONArray();
-                for (OcrResult r : results) {
-                    arr.put(r.toJson());
+                for (int i = 0; i < results.size(); i++) {
+                    JSONObject o = new JSONObject();
+                    o.put("index", i);
+                    o.put("text", results.get(i).text);
+                    o.put("score", results.get(i).score);
+                    arr.put(o);
                 }
                 JSONObject jo = new JSONObject();
-                jo.put("code", Response.Status.OK);
                 jo.put("data", arr);
-                jo.put("times", times);
-                return newFixedLengthResponse(jo.toString());
-            } catch (Exception e) {
-                Log.e("error", "serve: ", e);
-                return newFixedLengthResponse(Response.Status.INTERNAL_ERROR,
-                        "application/json",
-                        "{\"message\":\"" + e.getMessage() + "\",\"code\":500}");
+                return jo;
             }
+        });
+    }
+
+    /**
+     * /det、/rec 共用：在工作线程中执行，补上 code/times/queueMs
+     */
+    private Response serveStage(final EngineTask<JSONObject> task) {
+        try {
+            long l = System.currentTimeMillis();
+            OcrExecutor.Timed<JSONObject> timed = executor.execute(new Callable<JSONObject>() {
+                @Override
+                public JSONObject call() throws Exception {
+                    OcrMetrics.inc(OcrMetrics.Counter.REQUESTS);
+                    return task.call();
+                }
+            });
+            OcrMetrics.recordNanos(OcrMetrics.Stage.QUEUE_WAIT, timed.queueMs * 1_000_000L);
+            JSONObject jo = timed.value;
+            jo.put("code", Response.Status.OK.getRequestStatus());
+            jo.put("times", System.currentTimeMillis() - l);
+            jo.put("queueMs", timed.queueMs);
+            return newFixedLengthResponse(Response.Status.OK, "application/json", jo.toString());
+        } catch (RejectedExecutionException e) {
+            return rejectResponse();
+        } catch (ExecutionException e) {
+            return failureResponse(e.getCause());
+        } catch (Exception e) {
+            return failureResponse(e);
+        }
+    }
+
+    /**
+     * 线程配置压测：POST /bench?engines=1,2,4&intra=0,1,2&inter=0&pipeline=0,1&requests=20&warmup=1，body 为测试图片
+     * <pre>
+     *     每组配置新建引擎池，与线上请求抢 CPU 且额外占用内存，只用于调参
+     * </pre>
+     */
+    private Response serveBench(IHTTPSession session) {
+        if (!benchRunning.compareAndSet(false, true)) {
+            return errorResponse(Response.Status.CONFLICT, "benchmark already running");
+        }
+        try {
+            Map<String, String> parms = params(session);
+            int[] engineCounts = intList(parms.get("engines"), new int[]{1, 2}, 1, 8);
+            int[] intraOps = intList(parms.get("intra"), new int[]{0, 1}, 0, 16);
+            int[] interOps = intList(parms.get("inter"), new int[]{0}, 0, 16);
+            int[] pipelineFlags = intList(parms.get("pipeline"), new int[]{0}, 0, 1);
+            boolean[] pipelines = new boolean[pipelineFlags.length];
+            for (int i = 0; i < pipelines.length; i++) {
+                pipelines[i] = pipelineFlags[i] == 1;
+            }
+            int requests = intList(parms.get("requests"), new int[]{20}, 1, 1000)[0];
+            int warmup = intList(parms.get("warmup"), new int[]{1}, 0, 10)[0];
+            if (engineCounts.length * intraOps.length * interOps.length * pipelines.length > 32) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST, "too many combinations (max 32)");
+            }
+            byte[] image = readImage(session).image;
+            JSONArray arr = new JSONArray();
+            for (OcrBenchmark.Result r : OcrBenchmark.sweep(ctx, image, engineCounts, intraOps, interOps,
+                    pipelines, requests, warmup)) {
+                arr.put(r.toJson());
+            }
+            JSONObject jo = new JSONObject();
+            jo.put("code", Response.Status.OK.getRequestStatus());
+            jo.put("data", arr);
+            return newFixedLengthResponse(Response.Status.OK, "application/json", jo.toString());
+        } catch (Exception e) {
+            return failureResponse(e);
+        } finally {
+            benchRunning.set(false);
+        }
+    }
+
+    /**
+     * accurate / fast 两档模型对比：POST /compare?warmup=1，body 格式同 /rec（多张图片）
+     */
+    private Response serveCompare(final IHTTPSession session) {
+        return serveStage(new EngineTask<JSONObject>() {
+            @Override
+            JSONObject run(OnnxOcrEngine ocr) throws Exception {
+                OnnxOcrEngine fast = ocr.forProfile(OcrOptions.PROFILE_FAST);
+                if (fast == ocr) {
+                    throw new BadRequestException(Response.Status.BAD_REQUEST, "fast profile not loaded");
+                }
+                int warmup = intList(param(session, "warmup"), new int[]{1}, 0, 10)[0];
+                List<byte[]> images = readLines(session);
+                return OcrProfileComparison.run(ocr, fast, images, warmup).toJson();
+            }
+        });
+    }
+
+    /**
+     * 逗号分隔的整数列表，缺省时返回 def
+     */
+    private static int[] intList(String value, int[] def, int min, int max) throws BadRequestException {
+        if (value == null || value.trim().isEmpty()) return def;
+        String[] parts = value.split(",");
+        int[] out = new int[parts.length];
+        for (int i = 0; i < parts.length; i++) {
+            try {
+                out[i] = Integer.parseInt(parts[i].trim());
+            } catch (NumberFormatException e) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST, "invalid number: " + parts[i]);
+            }
+            if (out[i] < min || out[i] > max) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST,
+                        "value out of range [" + min + "," + max + "]: " + out[i]);
+            }
+        }
+        return out;
+    }
+
+    private static Response failureResponse(Throwable e) {
+        OcrMetrics.inc(OcrMetrics.Counter.ERRORS);
+        if (e instanceof BadRequestException) {
+            return errorResponse(((BadRequestException) e).status, e.getMessage());
+        }
+        Log.e("error", "serve: ", e);
+        return errorResponse(Response.Status.INTERNAL_ERROR, String.valueOf(e.getMessage()));
+    }
+
+    /**
+     * 流式响应（?stream=1 或 Accept: application/x-ndjson）
+     * <pre>
+     *     chunked + NDJSON：每识别出一行立即写出 {"index":..,"text":..,...}，
+     *     最后一行为汇总 {"done":true,"code":200,"count":..,"times":..,"queueMs":..}
+     * </pre>
+     */
+    private Response serveOcrStream(final IHTTPSession session) {
+        final long l = System.currentTimeMillis();
+        try {
+            PipedInputStream in = new PipedInputStream(STREAM_PIPE_SIZE);
+            final PipedOutputStream out = new PipedOutputStream(in);
+            executor.submit(new EngineTask<Void>() {
+                @Override
+                Void run(OnnxOcrEngine ocr) throws Exception {
+                    try {
+                        streamOcr(ocr, session, out, l, createdAt);
+                    } finally {
+                        out.close();
+                    }
+                    return null;
+                }
+            });
+            return newChunkedResponse(Response.Status.OK, MIME_NDJSON, in);
+        } catch (RejectedExecutionException e) {
+            return rejectResponse();
+        } catch (Exception e) {
+            Log.e("error", "serve: ", e);
+            return errorResponse(Response.Status.INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    private void streamOcr(OnnxOcrEngine ocr, IHTTPSession session, OutputStream out, long l,
+                           long arrivedAt) throws IOException {
+        final Writer writer = new OutputStreamWriter(out, "UTF-8");
+        long queueMs = System.currentTimeMillis() - l;
+        OcrMetrics.recordNanos(OcrMetrics.Stage.QUEUE_WAIT, queueMs * 1_000_000L);
+        final int[] count = {0};
+        JSONObject trailer = new JSONObject();
+        try {
+            OcrReply reply = runOcr(ocr, session, null, new OcrResultListener() {
+                @Override
+                public void onResult(int index, OcrResult result) throws Exception {
+                    long t = System.nanoTime();
+                    JSONObject line = result.toJson();
+                    line.put("index", index);
+                    writeLine(writer, line);
+                    OcrMetrics.record(OcrMetrics.Stage.SERIALIZE, t);
+                    count[0]++;
+                }
+            }, arrivedAt);
+            long times = System.currentTimeMillis() - l;
+            OcrMetrics.recordNanos(OcrMetrics.Stage.TOTAL, times * 1_000_000L);
+            Log.d("HttpOcrServer", "stream times: " + times + "ms queue: " + queueMs + "ms count=" + count[0]);
+            trailer.put("done", true);
+            trailer.put("code", Response.Status.OK.getRequestStatus());
+            trailer.put("count", count[0]);
+            trailer.put("times", times);
+            trailer.put("queueMs", queueMs);
+            trailer.put("cached", reply.cached);
+            trailer.put("truncated", reply.truncated);
+            trailer.put("tier", reply.tier);
+        } catch (Exception e) {
+            // 客户端已断开时管道关闭，下面写汇总行会抛 IOException 结束任务
+            Log.e("error", "stream: ", e);
+            OcrMetrics.inc(OcrMetrics.Counter.ERRORS);
+            Response.Status status = e instanceof BadRequestException
+                    ? ((BadRequestException) e).status : Response.Status.INTERNAL_ERROR;
+            try {
+                trailer.put("done", true);
+                trailer.put("code", status.getRequestStatus());
+                trailer.put("message", String.valueOf(e.getMessage()));
+                trailer.put("count", count[0]);
+            } catch (JSONException ignored) {
+            }
+        }
+        writeLine(writer, trailer);
+    }
+
+    private static void writeLine(Writer writer, JSONObject line) throws IOException {
+        writer.write(line.toString());
+        writer.write('\n');
+        writer.flush();
+    }
+
+    private static boolean isStreaming(IHTTPSession session) {
+        String stream = param(session, "stream");
+        if ("1".equals(stream) || "true".equalsIgnoreCase(stream)) return true;
+        String accept = session.getHeaders().get("accept");
+        return accept != null && accept.contains(MIME_NDJSON);
+    }
+
+    /**
+     * 在工作线程中执行：读 body + 识别
+     *
+     * @param connection 客户端连接，非 null 时客户端断开后取消请求（见 ConnectionProbe）
+     * @param listener   流式输出回调，可为 null
+     * @param arrivedAt  请求到达时间（System.nanoTime()），用于计算截止时间
+     */
+    private OcrReply runOcr(OnnxOcrEngine ocr, IHTTPSession session, Socket connection,
+                            OcrResultListener listener, long arrivedAt) throws Exception {
+        OcrMetrics.inc(OcrMetrics.Counter.REQUESTS);
+        String contentType = contentType(session);
+        if (contentType.startsWith("multipart/form-data")) {
+            return runMultipart(ocr, session, connection, listener, arrivedAt);
+        } else if (contentType.startsWith("application/octet-stream") || contentType.startsWith("image/")) {
+            return runBinary(ocr, session, connection, listener, arrivedAt);
+        }
+        checkBodySize(session);
+        Map<String, String> body = new HashMap<>();
+        session.parseBody(body);
+        String json = body.get("postData");
+        JSONObject obj = new JSONObject(json);
+        String base64 = obj.getString("image");
+        OcrOptions options = withDeadline(parseOptions(obj), session, arrivedAt);
+        options.tier = governor.select();
+        watchConnection(options, connection, session, null);
+        try {
+            if (cache != null) {
+                return runCached(ocr, OnnxOcrEngine.decodeBase64(base64), options, !noCache(session), listener);
+            }
+            List<OcrResult> results = ocr.runBytes(OnnxOcrEngine.decodeBase64(base64), options, listener);
+            return new OcrReply(results, options);
+        } finally {
+            options.deadline.watch(null);
+        }
+    }
+
+    /**
+     * application/octet-stream / image/*：body 即图片，不走缓存时直接流式解码
+     */
+    private OcrReply runBinary(OnnxOcrEngine ocr, IHTTPSession session, Socket connection,
+                               OcrResultListener listener, long arrivedAt) throws Exception {
+        OcrOptions options = withDeadline(parseOptions(session), session, arrivedAt);
+        options.tier = governor.select();
+        BoundedInputStream body = openBody(session);
+        watchConnection(options, connection, session, body);
+        try {
+            if (cacheable(body, session)) {
+                return runCached(ocr, readExactly(body), options, !noCache(session), listener);
+            }
+            List<OcrResult> results = ocr.runStream(body, options, listener);
+            return new OcrReply(results, options);
+        } finally {
+            options.deadline.watch(null);
+            body.close();
+        }
+    }
+
+    /**
+     * multipart/form-data：取 name="image"（或第一个文件 part），不走缓存时流式解码
+     */
+    private OcrReply runMultipart(OnnxOcrEngine ocr, IHTTPSession session, Socket connection,
+                                  OcrResultListener listener, long arrivedAt) throws Exception {
+        String boundary = MultipartStream.parseBoundary(session.getHeaders().get("content-type"));
+        if (boundary == null) {
+            throw new BadRequestException(Response.Status.BAD_REQUEST, "missing multipart boundary");
+        }
+        OcrOptions options = withDeadline(parseOptions(session), session, arrivedAt);
+        options.tier = governor.select();
+        BoundedInputStream body = openBody(session);
+        watchConnection(options, connection, session, body);
+        try {
+            InputStream part = new MultipartStream(body, boundary).nextPart("image");
+            if (part == null) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST, "missing image part");
+            }
+            if (cacheable(body, session)) {
+                return runCached(ocr, readAll(part, (int) body.remaining()), options, !noCache(session), listener);
+            }
+            List<OcrResult> results = ocr.runStream(part, options, listener);
+            return new OcrReply(results, options);
+        } finally {
+            options.deadline.watch(null);
+            body.close();
+        }
+    }
+
+    /**
+     * 先查整图缓存，命中时不解码图片；Cache-Control: no-cache 跳过查找但仍写入
+     *
+     * @param lookup 是否查找缓存
+     */
+    private OcrReply runCached(OnnxOcrEngine ocr, byte[] image, OcrOptions options, boolean lookup,
+                               OcrResultListener listener) throws Exception {
+        String key = OcrResultCache.key(image, options.cacheKey());
+        if (lookup) {
+            List<OcrResult> hit = cache.get(key);
+            if (hit != null) {
+                if (listener != null) {
+                    for (int i = 0; i < hit.size(); i++) {
+                        listener.onResult(i, hit.get(i));
+                    }
+                }
+                Log.d("HttpOcrServer", "cache hit: hits=" + cache.hitCount() + " misses=" + cache.missCount());
+                return new OcrReply(hit, true);
+            }
+        }
+        List<OcrResult> results = ocr.runBytes(image, options, listener);
+        OcrReply reply = new OcrReply(results, options);
+        if (!reply.truncated && reply.tier == 0) {
+            // 不完整或降级得到的结果不缓存
+            cache.put(key, results);
+        }
+        return reply;
+    }
+
+    /**
+     * 异步任务
+     * <pre>
+     *     POST   /jobs       提交，立即返回 202 和任务 id（?priority=0~100，默认 0，同步请求为 100）
+     *     GET    /jobs/{id}  查询状态，完成后带识别结果
+     *     DELETE /jobs/{id}  取消；已结束的任务则删除
+     * </pre>
+     */
+    private Response serveJobs(IHTTPSession session) {
+        try {
+            String uri = session.getUri();
+            if ("/jobs".equals(uri)) {
+                if (!Method.POST.equals(session.getMethod())) {
+                    return errorResponse(Response.Status.METHOD_NOT_ALLOWED, "use POST /jobs");
+                }
+                return submitJob(session);
+            }
+            String id = uri.substring("/jobs/".length());
+            JobManager.Job job;
+            if (Method.GET.equals(session.getMethod())) {
+                job = jobs.get(id);
+            } else if (Method.DELETE.equals(session.getMethod())) {
+                job = jobs.cancel(id);
+            } else {
+                return errorResponse(Response.Status.METHOD_NOT_ALLOWED, "use GET or DELETE /jobs/{id}");
+            }
+            if (job == null) {
+                return errorResponse(Response.Status.NOT_FOUND, "job not found");
+            }
+            return newFixedLengthResponse(Response.Status.OK, "application/json", jobJson(job).toString());
+        } catch (BadRequestException e) {
+            return errorResponse(e.status, e.getMessage());
+        } catch (Exception e) {
+            Log.e("error", "jobs: ", e);
+            return errorResponse(Response.Status.INTERNAL_ERROR, e.getMessage());
+        }
+    }
+
+    private Response submitJob(IHTTPSession session) throws Exception {
+        if (jobs.pendingCount() >= OcrConfig.Server.JOB_MAX_PENDING) {
+            return rejectResponse();
+        }
+        // 响应立即返回，body 必须在连接线程读完
+        final OcrRequest request = readImage(session);
+        withDeadline(request.options, session, System.nanoTime());
+        if (request.options.deadline == OcrDeadline.NONE) {
+            // 没有超时也要能通过 DELETE /jobs/{id} 中止
+            request.options.deadline = OcrDeadline.cancellable();
+        }
+        final boolean lookup = !noCache(session);
+        int priority = OcrExecutor.PRIORITY_BULK;
+        String p = param(session, "priority");
+        if (p != null) {
+            try {
+                priority = Integer.parseInt(p.trim());
+            } catch (NumberFormatException e) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST, "invalid priority: " + p);
+            }
+        }
+        JobManager.Job job;
+        try {
+            job = jobs.submit(new EngineTask<OcrReply>() {
+                @Override
+                OcrReply run(OnnxOcrEngine ocr) throws Exception {
+                    OcrMetrics.inc(OcrMetrics.Counter.REQUESTS);
+                    request.options.tier = governor.select();
+                    if (cache != null) {
+                        return runCached(ocr, request.image, request.options, lookup, null);
+                    }
+                    List<OcrResult> results = ocr.runBytes(request.image, request.options, null);
+                    return new OcrReply(results, request.options);
+                }
+            }, priority, request.options.deadline, request.image.length);
+        } catch (RejectedExecutionException e) {
+            return rejectResponse();
+        }
+        JSONObject jo = new JSONObject();
+        jo.put("code", Response.Status.ACCEPTED.getRequestStatus());
+        jo.put("id", job.id);
+        jo.put("status", job.status().label());
+        Response r = newFixedLengthResponse(Response.Status.ACCEPTED, "application/json", jo.toString());
+        r.addHeader("Location", "/jobs/" + job.id);
+        return r;
+    }
+
+    private static JSONObject jobJson(JobManager.Job job) throws JSONException {
+        JSONObject jo = new JSONObject();
+        jo.put("code", Response.Status.OK.getRequestStatus());
+        jo.put("id", job.id);
+        jo.put("status", job.status().label());
+        jo.put("priority", job.priority);
+        if (job.status().isFinished() && job.status() != JobManager.Status.CANCELLED) {
+            jo.put("queueMs", job.queueMs());
+            jo.put("times", job.runMs());
+        }
+        OcrReply reply = job.reply();
+        if (reply != null) {
+            JSONArray arr = new JSONArray();
+            for (OcrResult r : reply.results) {
+                arr.put(r.toJson());
+            }
+            jo.put("data", arr);
+            jo.put("cached", reply.cached);
+            jo.put("truncated", reply.truncated);
+            jo.put("tier", reply.tier);
+        }
+        if (job.error() != null) {
+            jo.put("message", job.error());
+        }
+        return jo;
+    }
+
+    /**
+     * 读出整张图片的原始字节和参数（任意支持的 Content-Type）
+     */
+    private OcrRequest readImage(IHTTPSession session) throws Exception {
+        String contentType = contentType(session);
+        if (contentType.startsWith("multipart/form-data")) {
+            String boundary = MultipartStream.parseBoundary(session.getHeaders().get("content-type"));
+            if (boundary == null) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST, "missing multipart boundary");
+            }
+            BoundedInputStream body = openBody(session);
+            try {
+                InputStream part = new MultipartStream(body, boundary).nextPart("image");
+                if (part == null) {
+                    throw new BadRequestException(Response.Status.BAD_REQUEST, "missing image part");
+                }
+                return new OcrRequest(readAll(part, (int) body.remaining()), parseOptions(session));
+            } finally {
+                body.close();
+            }
+        } else if (contentType.startsWith("application/octet-stream") || contentType.startsWith("image/")) {
+            BoundedInputStream body = openBody(session);
+            try {
+                return new OcrRequest(readExactly(body), parseOptions(session));
+            } finally {
+                body.close();
+            }
+        }
+        checkBodySize(session);
+        Map<String, String> body = new HashMap<>();
+        session.parseBody(body);
+        JSONObject obj = new JSONObject(body.get("postData"));
+        return new OcrRequest(OnnxOcrEngine.decodeBase64(obj.getString("image")), parseOptions(obj));
+    }
+
+    /**
+     * 按请求参数 timeoutMs、请求头 X-Timeout-Ms、Server.DEFAULT_TIMEOUT_MS 的顺序取超时，0 为不限
+     *
+     * @param arrivedAt 请求到达时间（System.nanoTime()）
+     */
+    private static OcrOptions withDeadline(OcrOptions options, IHTTPSession session, long arrivedAt)
+            throws BadRequestException {
+        long ms = options.timeoutMs;
+        if (ms == 0) {
+            String header = session.getHeaders().get("x-timeout-ms");
+            if (header != null && !header.trim().isEmpty()) {
+                try {
+                    ms = OcrRequest.parseTimeout(header);
+                } catch (IllegalArgumentException e) {
+                    throw new BadRequestException(Response.Status.BAD_REQUEST, e.getMessage());
+                }
+            }
+        }
+        if (ms == 0) {
+            ms = OcrConfig.Server.DEFAULT_TIMEOUT_MS;
+        }
+        if (ms > 0) {
+            options.deadline = OcrDeadline.after(arrivedAt, ms);
+        }
+        return options;
+    }
+
+    /**
+     * JSON 请求的 rois / roiDet
+     */
+    private static OcrOptions parseOptions(JSONObject obj) throws Exception {
+        try {
+            return OcrRequest.parseOptions(obj);
+        } catch (IllegalArgumentException | JSONException e) {
+            throw new BadRequestException(Response.Status.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * query 参数的第一个值，没有时为 null
+     */
+    private static String param(IHTTPSession session, String name) {
+        List<String> values = session.getParameters().get(name);
+        return values == null || values.isEmpty() ? null : values.get(0);
+    }
+
+    /**
+     * 全部 query 参数，同名参数取第一个值
+     */
+    private static Map<String, String> params(IHTTPSession session) {
+        Map<String, String> parms = new HashMap<>();
+        for (Map.Entry<String, List<String>> e : session.getParameters().entrySet()) {
+            if (!e.getValue().isEmpty()) parms.put(e.getKey(), e.getValue().get(0));
+        }
+        return parms;
+    }
+
+    /**
+     * 二进制/multipart 请求从 query 取 rois / roiDet
+     */
+    private static OcrOptions parseOptions(IHTTPSession session) throws BadRequestException {
+        try {
+            return OcrRequest.parseOptions(params(session));
+        } catch (IllegalArgumentException e) {
+            throw new BadRequestException(Response.Status.BAD_REQUEST, e.getMessage());
+        }
+    }
+
+    /**
+     * /rec 的行图片：JSON {"images": [base64, ...]}、multipart 多个文件 part，或单张二进制
+     */
+    private List<byte[]> readLines(IHTTPSession session) throws Exception {
+        List<byte[]> lines = new ArrayList<>();
+        String contentType = contentType(session);
+        if (contentType.startsWith("multipart/form-data")) {
+            String boundary = MultipartStream.parseBoundary(session.getHeaders().get("content-type"));
+            if (boundary == null) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST, "missing multipart boundary");
+            }
+            BoundedInputStream body = openBody(session);
+            try {
+                MultipartStream multipart = new MultipartStream(body, boundary);
+                InputStream part;
+                while ((part = multipart.nextPart("image")) != null) {
+                    checkLineCount(lines.size() + 1);
+                    lines.add(readAll(part, 0));
+                }
+            } finally {
+                body.close();
+            }
+        } else if (contentType.startsWith("application/octet-stream") || contentType.startsWith("image/")) {
+            BoundedInputStream body = openBody(session);
+            try {
+                lines.add(readExactly(body));
+            } finally {
+                body.close();
+            }
+        } else {
+            checkBodySize(session);
+            Map<String, String> body = new HashMap<>();
+            session.parseBody(body);
+            JSONObject obj = new JSONObject(body.get("postData"));
+            JSONArray images = obj.optJSONArray("images");
+            if (images == null) {
+                throw new BadRequestException(Response.Status.BAD_REQUEST, "missing images");
+            }
+            checkLineCount(images.length());
+            for (int i = 0; i < images.length(); i++) {
+                lines.add(OnnxOcrEngine.decodeBase64(images.getString(i)));
+            }
+        }
+        if (lines.isEmpty()) {
+            throw new BadRequestException(Response.Status.BAD_REQUEST, "no images");
+        }
+        return lines;
+    }
+
+    private static void checkLineCount(int n) throws BadRequestException {
+        if (n > OcrConfig.Server.REC_MAX_LINES) {
+            throw new BadRequestException(Response.Status.BAD_REQUEST,
+                    "too many images: max " + OcrConfig.Server.REC_MAX_LINES);
+        }
+    }
+
+    private static boolean noCache(IHTTPSession session) {
+        String cc = session.getHeaders().get("cache-control");
+        return cc != null && cc.toLowerCase(Locale.US).contains("no-cache");
+    }
+
+    /**
+     * 上传是否走缓存（需要先整体读进内存算 hash）：开启缓存、不超过 Cache.MAX_IMAGE_BYTES、没有 no-store
+     */
+    private boolean cacheable(BoundedInputStream body, IHTTPSession session) {
+        if (cache == null || body.remaining() > OcrConfig.Cache.MAX_IMAGE_BYTES) return false;
+        String cc = session.getHeaders().get("cache-control");
+        return cc == null || !cc.toLowerCase(Locale.US).contains("no-store");
+    }
+
+    /**
+     * 按 Content-Length 一次分配，只拷贝一次
+     */
+    private static byte[] readExactly(BoundedInputStream body) throws IOException {
+        byte[] buf = new byte[(int) body.remaining()];
+        int off = 0;
+        while (off < buf.length) {
+            int n = body.read(buf, off, buf.length - off);
+            if (n < 0) throw new EOFException("request body truncated");
+            off += n;
+        }
+        return buf;
+    }
+
+    private static byte[] readAll(InputStream in, int sizeHint) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(Math.max(sizeHint, 8192));
+        byte[] buf = new byte[16 * 1024];
+        int n;
+        while ((n = in.read(buf)) >= 0) {
+            out.write(buf, 0, n);
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * 客户端断开后取消请求：没有截止时间的请求换成可取消的；connection 为 null（流式请求、异步任务）时不探测
+     *
+     * @param body 流式读取的 body，读完之后才开始探测；null 表示已整体读入
+     */
+    private static void watchConnection(OcrOptions options, Socket connection, IHTTPSession session,
+                                        BoundedInputStream body) {
+        if (connection == null) return;
+        if (options.deadline == OcrDeadline.NONE) {
+            options.deadline = OcrDeadline.cancellable();
+        }
+        options.deadline.watch(new ConnectionProbe(connection, session.getInputStream(), body));
+    }
+
+    private BoundedInputStream openBody(IHTTPSession session) throws BadRequestException {
+        long contentLength = contentLength(session);
+        if (contentLength < 0) {
+            throw new BadRequestException(Response.Status.LENGTH_REQUIRED, "Content-Length required");
+        }
+        checkBodySize(contentLength);
+        return new BoundedInputStream(session.getInputStream(), contentLength);
+    }
+
+    /**
+     * JSON body 由 NanoHTTPD 整体读入，先按 Content-Length 拒绝过大的请求
+     */
+    private static void checkBodySize(IHTTPSession session) throws BadRequestException {
+        checkBodySize(contentLength(session));
+    }
+
+    private static void checkBodySize(long contentLength) throws BadRequestException {
+        if (contentLength > OcrConfig.Server.MAX_BODY_BYTES) {
+            throw new BadRequestException(Response.Status.PAYLOAD_TOO_LARGE,
+                    "request body too large: max " + OcrConfig.Server.MAX_BODY_BYTES + " bytes");
+        }
+    }
+
+    /**
+     * @return 没有或无法解析时为 -1
+     */
+    private static long contentLength(IHTTPSession session) {
+        String len = session.getHeaders().get("content-length");
+        try {
+            return len == null ? -1 : Long.parseLong(len.trim());
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    private static String contentType(IHTTPSession session) {
+        String ct = session.getHeaders().get("content-type");
+        return ct == null ? "" : ct.trim().toLowerCase(Locale.US);
+    }
+
+    /**
+     * 就绪检查：预热完成前返回 503
+     */
+    private Response serveReady() {
+        try {
+            JSONObject body = new JSONObject();
+            body.put("ready", ready);
+            body.put("warmupMs", warmupMs);
+            return newFixedLengthResponse(ready ? Response.Status.OK : Response.Status.SERVICE_UNAVAILABLE,
+                    "application/json", body.toString());
+        } catch (JSONException e) {
+            return newFixedLengthResponse(Response.Status.INTERNAL_ERROR, MIME_PLAINTEXT, e.getMessage());
+        }
+    }
+
+    private void registerGauges() {
+        OcrMetrics.registerGauge("ocr_ready", "1 once warm-up has finished", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return ready ? 1 : 0;
+            }
+        });
+        OcrMetrics.registerGauge("ocr_warmup_seconds", "Time spent warming up the engine pool (-1 until done)", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                long ms = warmupMs;
+                return ms < 0 ? -1 : ms / 1000.0;
+            }
+        });
+        OcrMetrics.registerGauge("ocr_quality_tier", "Current load-shedding quality tier (0 = full quality)", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return governor.level();
+            }
+        });
+        OcrMetrics.registerGauge("ocr_queue_depth", "Requests waiting for an OCR worker", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return executor.queueDepth();
+            }
+        });
+        OcrMetrics.registerGauge("ocr_active_workers", "OCR workers currently running", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return executor.activeCount();
+            }
+        });
+        OcrMetrics.registerGauge("ocr_engines_idle", "OCR engines not currently in use", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return engines.idleCount();
+            }
+        });
+        if (OcrConfig.Server.PIPELINE) {
+            OcrMetrics.registerGauge("ocr_pipeline_in_flight", "Images inside the det/crop/rec pipeline", new OcrMetrics.Gauge() {
+                @Override
+                public double value() {
+                    return engines.pipelineInFlight();
+                }
+            });
+        }
+        OcrMetrics.registerGauge("ocr_jobs_pending", "Async jobs queued or running", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return jobs.pendingCount();
+            }
+        });
+        if (cache == null) return;
+        OcrMetrics.registerGauge("ocr_cache_entries", "Entries in the result cache", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return cache.size();
+            }
+        });
+        OcrMetrics.registerGauge("ocr_cache_bytes", "Serialized bytes held by the result cache", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return cache.bytes();
+            }
+        });
+        OcrMetrics.registerGauge("ocr_cache_hits", "Result cache hits", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return cache.hitCount();
+            }
+        });
+        OcrMetrics.registerGauge("ocr_cache_misses", "Result cache misses", new OcrMetrics.Gauge() {
+            @Override
+            public double value() {
+                return cache.missCount();
+            }
+        });
+    }
+
+    /**
+     * 队列已满：不读 body，直接断开连接，拒绝要快
+     */
+    private Response rejectResponse() {
+        Response r = errorResponse(Response.Status.TOO_MANY_REQUESTS, "OCR queue full");
+        r.addHeader("Retry-After", String.valueOf(executor.retryAfterSeconds(OcrConfig.Server.RETRY_AFTER_SECONDS)));
+        r.closeConnection(true);
+        return r;
+    }
+
+    private static Response errorResponse(Response.IStatus status, String message) {
+        return newFixedLengthResponse(status,
+                "application/json",
+                "{\"message\":" + JSONObject.quote(message) + ",\"code\":" + status.getRequestStatus() + "}");
+    }
+
+    private static class BadRequestException extends Exception {
+        private static final long serialVersionUID = 1L;
+
+        final Response.Status status;
+
+        BadRequestException(Response.Status status, String message) {
+            super(message);
+            this.status = status;
         }
-        return newFixedLengthResponse("OCR Service Running");
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,47 @@
+package com.ocr.pponnx.ocr;
+
+import android.graphics.Bitmap;
+
+/**
+ * Bitmap 中一块矩形区域作为 ResizeNormalize 的像素来源，按行读取，不拷贝整图
+ */
+class BitmapPixels implements ResizeNormalize.PixelSource {
+
+    private final Bitmap bitmap;
+    private final int left;
+    private final int top;
+    private final int width;
+    private final int height;
+
+    BitmapPixels(Bitmap bitmap) {
+        this(bitmap, 0, 0, bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    BitmapPixels(Bitmap bitmap, int left, int top, int width, int height) {
+        this.bitmap = bitmap;
+        this.left = left;
+        this.top = top;
+        this.width = width;
+        this.height = height;
+    }
+
+    @Override
+    public int width() {
+        return width;
+    }
+
+    @Override
+    public int height() {
+        return height;
+    }
+
+    @Override
+    public void readRows(int[] dst, int y, int rows) {
+        bitmap.getPixels(dst, 0, width, left, top + y, width, rows);
+    }
+
+    @Override
+    public void readRect(int[] dst, int x, int y, int w, int h) {
+        bitmap.getPixels(dst, 0, w, left + x, top + y, w, h);
+    }
+}
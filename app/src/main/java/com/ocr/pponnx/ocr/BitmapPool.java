@@ -0,0 +1,186 @@
+package com.ocr.pponnx.ocr;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.Canvas;
+import android.graphics.Matrix;
+import android.graphics.Paint;
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * 中间 Bitmap 的复用池
+ * <pre>
+ *     整图解码的结果、区域解码时每行 detach 出的小图（见 TextLine）都是用完即弃的 ARGB_8888，
+ *     持续请求下 GC 停顿明显。这里按分配字节数分级缓存用完的 Bitmap：
+ *       - acquire 取分配字节数不小于所需、且不超过所需 2 倍的一张，reconfigure 成目标尺寸；没有则新建
+ *       - 新建时宽高向上取整（宽 64、高 16 的倍数），之后相近尺寸的框都能复用
+ *       - release 放回池中，总字节数超过 Performance.BITMAP_POOL_BYTES 时直接 recycle
+ *       - 解码整图时优先把池里够大的 Bitmap 作为 inBitmap
+ *     绘制用的 Canvas / Paint 每个线程一份
+ *
+ *     Performance.RECYCLE_BITMAPS = false 时不缓存也不 recycle，全部交给 GC（排查问题时用）
+ *     借出的 Bitmap 只能由借出方 release 一次，release 之后不能再使用
+ * </pre>
+ */
+public final class BitmapPool {
+
+    private static final String TAG = "BitmapPool";
+
+    private static final int WIDTH_ALIGN = 64;
+    private static final int HEIGHT_ALIGN = 16;
+
+    /** 分配字节数 → 空闲的 Bitmap */
+    private static final TreeMap<Integer, ArrayDeque<Bitmap>> FREE = new TreeMap<>();
+    private static long pooledBytes;
+
+    private static final ThreadLocal<Canvas> CANVAS = new ThreadLocal<Canvas>() {
+        @Override
+        protected Canvas initialValue() {
+            return new Canvas();
+        }
+    };
+    private static final Paint FILTER = new Paint(Paint.FILTER_BITMAP_FLAG);
+
+    static {
+        OcrMetrics.registerGauge("ocr_bitmap_pool_bytes", "Bytes held by idle bitmaps in the bitmap pool",
+                new OcrMetrics.Gauge() {
+                    @Override
+                    public double value() {
+                        return pooledBytes();
+                    }
+                });
+    }
+
+    private BitmapPool() {
+    }
+
+    /**
+     * 取一张 w x h 的 ARGB_8888
+     *
+     * @param clear 是否清成透明（调用方不会画满整张图时）
+     */
+    public static Bitmap acquire(int w, int h, boolean clear) {
+        w = Math.max(1, w);
+        h = Math.max(1, h);
+        Bitmap bitmap = OcrConfig.Performance.RECYCLE_BITMAPS ? take(w * h * 4) : null;
+        if (bitmap != null) {
+            bitmap.reconfigure(w, h, Bitmap.Config.ARGB_8888);
+            if (clear) bitmap.eraseColor(0);
+            OcrMetrics.inc(OcrMetrics.Counter.BITMAP_POOL_HITS);
+            return bitmap;
+        }
+        OcrMetrics.inc(OcrMetrics.Counter.BITMAP_POOL_MISSES);
+        if (!OcrConfig.Performance.RECYCLE_BITMAPS) {
+            return Bitmap.createBitmap(w, h, Bitmap.Config.ARGB_8888);
+        }
+        int aw = ((w + WIDTH_ALIGN - 1) / WIDTH_ALIGN) * WIDTH_ALIGN;
+        int ah = ((h + HEIGHT_ALIGN - 1) / HEIGHT_ALIGN) * HEIGHT_ALIGN;
+        bitmap = Bitmap.createBitmap(aw, ah, Bitmap.Config.ARGB_8888);
+        if (aw != w || ah != h) {
+            bitmap.reconfigure(w, h, Bitmap.Config.ARGB_8888);
+        }
+        return bitmap;
+    }
+
+    /**
+     * 归还；null、已 recycle 的忽略
+     */
+    public static void release(Bitmap bitmap) {
+        if (bitmap == null || bitmap.isRecycled() || !OcrConfig.Performance.RECYCLE_BITMAPS) return;
+        if (!bitmap.isMutable() || bitmap.getConfig() != Bitmap.Config.ARGB_8888) {
+            bitmap.recycle();
+            return;
+        }
+        int bytes = bitmap.getAllocationByteCount();
+        synchronized (FREE) {
+            if (pooledBytes + bytes <= OcrConfig.Performance.BITMAP_POOL_BYTES) {
+                ArrayDeque<Bitmap> list = FREE.get(bytes);
+                if (list == null) {
+                    list = new ArrayDeque<>();
+                    FREE.put(bytes, list);
+                }
+                list.push(bitmap);
+                pooledBytes += bytes;
+                return;
+            }
+        }
+        bitmap.recycle();
+    }
+
+    /**
+     * quad（左上、右上、右下、左下）透视拉正成 w x h（双线性），结果来自池
+     */
+    public static Bitmap warp(Bitmap src, float[] quad, int w, int h) {
+        // 四边形可能越出源图，画不到的区域要清掉
+        Bitmap dst = acquire(w, h, true);
+        Matrix matrix = new Matrix();
+        matrix.setPolyToPoly(quad, 0, new float[]{0, 0, w, 0, w, h, 0, h}, 0, 4);
+        Canvas canvas = CANVAS.get();
+        canvas.setBitmap(dst);
+        canvas.drawBitmap(src, matrix, FILTER);
+        canvas.setBitmap(null);
+        return dst;
+    }
+
+    /**
+     * 解码整张图，尽量复用池中够大的 Bitmap 作为 inBitmap
+     *
+     * @return 不是可解码的图片时为 null
+     */
+    public static Bitmap decode(byte[] bytes) {
+        if (!OcrConfig.Performance.RECYCLE_BITMAPS) {
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+        }
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bounds);
+        if (bounds.outWidth <= 0 || bounds.outHeight <= 0) return null;
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inMutable = true;
+        options.inBitmap = take(bounds.outWidth * bounds.outHeight * 4);
+        if (options.inBitmap == null) {
+            OcrMetrics.inc(OcrMetrics.Counter.BITMAP_POOL_MISSES);
+            return BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        }
+        Bitmap reuse = options.inBitmap;
+        try {
+            Bitmap bitmap = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+            if (bitmap != null) {
+                OcrMetrics.inc(OcrMetrics.Counter.BITMAP_POOL_HITS);
+                return bitmap;
+            }
+        } catch (IllegalArgumentException e) {
+            // 格式不支持 inBitmap，放回去正常解码
+            Log.d(TAG, "inBitmap 不可用: " + e.getMessage());
+        }
+        release(reuse);
+        OcrMetrics.inc(OcrMetrics.Counter.BITMAP_POOL_MISSES);
+        return BitmapFactory.decodeByteArray(bytes, 0, bytes.length);
+    }
+
+    public static long pooledBytes() {
+        synchronized (FREE) {
+            return pooledBytes;
+        }
+    }
+
+    /**
+     * 分配字节数在 [bytes, 2 * bytes] 内最小的一张
+     */
+    private static Bitmap take(int bytes) {
+        synchronized (FREE) {
+            Map.Entry<Integer, ArrayDeque<Bitmap>> e = FREE.ceilingEntry(bytes);
+            if (e == null || e.getKey() > 2L * bytes) return null;
+            Bitmap bitmap = e.getValue().pop();
+            if (e.getValue().isEmpty()) FREE.remove(e.getKey());
+            pooledBytes -= e.getKey();
+            return bitmap;
+        }
+    }
+}
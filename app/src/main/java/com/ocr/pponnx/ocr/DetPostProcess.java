@@ -6,6 +6,7 @@ import android.util.Log;
 import com.ocr.pponnx.ocr.det.GeometryUtils;
 import com.ocr.pponnx.ocr.det.RotatedBox;
 
+import java.nio.FloatBuffer;
 import java.util.ArrayList;
 import java.util.List;
 
@@ -19,14 +20,28 @@ public class DetPostProcess {
     public static List<PointF[]> run(float[][][] detOutput) {
         int h = detOutput.length;
         int w = detOutput[0].length;
-        boolean[][] visited = new boolean[h][w];
+        FloatBuffer prob = FloatBuffer.allocate(h * w);
+        for (int y = 0; y < h; y++) {
+            for (int x = 0; x < w; x++) {
+                prob.put(detOutput[y][x][0]);
+            }
+        }
+        return run(prob, h, w);
+    }
+
+    /**
+     * 直接读概率图（行优先 [h, w]，可以是 ORT 输出张量的 native buffer），不拷贝
+     */
+    public static List<PointF[]> run(FloatBuffer prob, int h, int w) {
+        boolean[] visited = new boolean[h * w];
         List<PointF[]> polygons = new ArrayList<>();
 
         for (int y = 0; y < h; y++) {
             for (int x = 0; x < w; x++) {
-                if (!visited[y][x] && detOutput[y][x][0] > detThreshold) {
+                int idx = y * w + x;
+                if (!visited[idx] && prob.get(idx) > detThreshold) {
                     // flood fill 找到连通区域
-                    List<PointF> regionPoints = floodFillPoints(detOutput, visited, x, y, h, w);
+                    List<PointF> regionPoints = floodFillPoints(prob, visited, x, y, h, w);
                     if (regionPoints.size() < 3) continue; // 太小忽略
 
                     // 调用你的 minAreaRect 得到旋转矩形
@@ -50,11 +65,11 @@ public class DetPostProcess {
     /**
      * 8 邻域 flood fill，返回该连通区域所有点
      */
-    private static List<PointF> floodFillPoints(float[][][] detOutput, boolean[][] visited, int startX, int startY, int H, int W) {
+    private static List<PointF> floodFillPoints(FloatBuffer prob, boolean[] visited, int startX, int startY, int H, int W) {
         List<PointF> points = new ArrayList<>();
         List<int[]> stack = new ArrayList<>();
         stack.add(new int[]{startX, startY});
-        visited[startY][startX] = true;
+        visited[startY * W + startX] = true;
 
         int[] dx = {-1, -1, -1, 0, 0, 1, 1, 1};
         int[] dy = {-1, 0, 1, -1, 1, -1, 0, 1};
@@ -68,9 +83,9 @@ public class DetPostProcess {
                 int nx = x + dx[i];
                 int ny = y + dy[i];
                 if (nx >= 0 && nx < W && ny >= 0 && ny < H
-                        && !visited[ny][nx]
-                        && detOutput[ny][nx][0] > detThreshold) {
-                    visited[ny][nx] = true;
+                        && !visited[ny * W + nx]
+                        && prob.get(ny * W + nx) > detThreshold) {
+                    visited[ny * W + nx] = true;
                     stack.add(new int[]{nx, ny});
                 }
             }
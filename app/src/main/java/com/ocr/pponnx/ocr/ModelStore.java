@@ -0,0 +1,241 @@
+package com.ocr.pponnx.ocr;
+
+import android.content.Context;
+import android.content.pm.PackageManager;
+import android.util.Log;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Properties;
+
+/**
+ * 模型文件管理
+ * <pre>
+ *     assets 里的 .onnx 首次使用时解压到 filesDir/models，之后按文件路径创建会话，
+ *     ORT 直接 mmap 文件，模型不再整块读进 Java 堆
+ *
+ *     manifest.properties 记录每个模型的 sha256、大小和解压时的 APK 更新时间：
+ *     APK 没变且文件大小一致就直接用，不再读 assets；APK 更新后重新解压
+ * </pre>
+ */
+public class ModelStore {
+
+    private static final String TAG = "ModelStore";
+    private static final String DIR = "models";
+    private static final String MANIFEST = "manifest.properties";
+    private static final String OPTIMIZED_DIR = "optimized";
+
+    /** 同一进程内多个引擎同时初始化时串行解压 */
+    private static final Object LOCK = new Object();
+
+    private final Context ctx;
+    private final File dir;
+
+    public ModelStore(Context ctx) {
+        this.ctx = ctx;
+        this.dir = new File(ctx.getFilesDir(), DIR);
+    }
+
+    /**
+     * 已解压的模型文件信息
+     */
+    public static class Model {
+        public final String name;
+        public final File file;
+        /** 模型内容的 sha256（hex），可用于其它缓存的 key */
+        public final String sha256;
+
+        Model(String name, File file, String sha256) {
+            this.name = name;
+            this.file = file;
+            this.sha256 = sha256;
+        }
+    }
+
+    /**
+     * 取 assets 中 name 对应的本地文件，必要时解压
+     */
+    public Model get(String name) throws IOException {
+        synchronized (LOCK) {
+            if (!dir.isDirectory() && !dir.mkdirs()) {
+                throw new IOException("无法创建目录: " + dir);
+            }
+            Properties manifest = readManifest();
+            File file = new File(dir, name);
+            String apkStamp = String.valueOf(apkUpdateTime());
+            String sha = manifest.getProperty(name + ".sha256");
+            String size = manifest.getProperty(name + ".size");
+            if (sha != null && apkStamp.equals(manifest.getProperty(name + ".apk"))
+                    && file.isFile() && String.valueOf(file.length()).equals(size)) {
+                return new Model(name, file, sha);
+            }
+
+            long t = System.currentTimeMillis();
+            sha = extract(name, file);
+            manifest.setProperty(name + ".sha256", sha);
+            manifest.setProperty(name + ".size", String.valueOf(file.length()));
+            manifest.setProperty(name + ".apk", apkStamp);
+            writeManifest(manifest);
+            Log.i(TAG, "解压模型 " + name + ": " + file.length() + " bytes, sha256=" + sha
+                    + ", 耗时=" + (System.currentTimeMillis() - t) + "ms");
+            return new Model(name, file, sha);
+        }
+    }
+
+    /**
+     * assets 中是否有其中任意一个文件
+     */
+    public static boolean hasAnyAsset(Context ctx, String... names) {
+        for (String name : names) {
+            if (name == null || name.isEmpty()) continue;
+            try {
+                ctx.getAssets().open(name).close();
+                return true;
+            } catch (IOException e) {
+                // 不存在，继续找下一个
+            }
+        }
+        return false;
+    }
+
+    /**
+     * 优化后模型（ORT 格式）的缓存路径
+     *
+     * @param variant 影响优化结果的参数摘要（ORT 版本、优化级别等），不同取值互不覆盖
+     */
+    public File optimizedFile(Model model, String variant) throws IOException {
+        File optimized = new File(dir, OPTIMIZED_DIR);
+        if (!optimized.isDirectory() && !optimized.mkdirs()) {
+            throw new IOException("无法创建目录: " + optimized);
+        }
+        String key = model.sha256.substring(0, 16) + "." + variant.replaceAll("[^A-Za-z0-9._-]", "_");
+        return new File(optimized, baseName(model.name) + "." + key + ".ort");
+    }
+
+    /**
+     * ORT 写完临时文件后改名为正式缓存，并删除同一模型其它 key 的旧缓存
+     */
+    public void commitOptimized(Model model, File tmp, File target) {
+        synchronized (LOCK) {
+            if (!tmp.renameTo(target)) {
+                target.delete();
+                if (!tmp.renameTo(target)) {
+                    Log.w(TAG, "优化模型缓存写入失败: " + target);
+                    tmp.delete();
+                    return;
+                }
+            }
+            File[] files = target.getParentFile().listFiles();
+            if (files == null) return;
+            String prefix = baseName(model.name) + ".";
+            for (File f : files) {
+                if (f.getName().startsWith(prefix) && !f.equals(target)
+                        && !f.getName().endsWith(".tmp")) {
+                    Log.i(TAG, "删除过期的优化模型缓存: " + f.getName());
+                    f.delete();
+                }
+            }
+        }
+    }
+
+    private static String baseName(String name) {
+        int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    /**
+     * 拷贝到临时文件的同时计算 sha256，完成后改名，中途被杀也不会留下半个模型
+     */
+    private String extract(String name, File target) throws IOException {
+        File tmp = new File(dir, name + ".tmp");
+        MessageDigest digest = sha256();
+        InputStream in = ctx.getAssets().open(name);
+        try {
+            OutputStream out = new FileOutputStream(tmp);
+            try {
+                byte[] buf = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buf)) >= 0) {
+                    out.write(buf, 0, n);
+                    digest.update(buf, 0, n);
+                }
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+        if (!tmp.renameTo(target)) {
+            target.delete();
+            if (!tmp.renameTo(target)) {
+                throw new IOException("无法写入模型文件: " + target);
+            }
+        }
+        return hex(digest.digest());
+    }
+
+    private Properties readManifest() {
+        Properties p = new Properties();
+        File f = new File(dir, MANIFEST);
+        if (!f.isFile()) return p;
+        try {
+            InputStream in = new FileInputStream(f);
+            try {
+                p.load(in);
+            } finally {
+                in.close();
+            }
+        } catch (IOException e) {
+            Log.w(TAG, "manifest 读取失败，将重新解压", e);
+            p.clear();
+        }
+        return p;
+    }
+
+    private void writeManifest(Properties p) throws IOException {
+        File tmp = new File(dir, MANIFEST + ".tmp");
+        OutputStream out = new FileOutputStream(tmp);
+        try {
+            p.store(out, "extracted models");
+        } finally {
+            out.close();
+        }
+        File f = new File(dir, MANIFEST);
+        if (!tmp.renameTo(f)) {
+            f.delete();
+            if (!tmp.renameTo(f)) {
+                throw new IOException("无法写入 manifest: " + f);
+            }
+        }
+    }
+
+    private long apkUpdateTime() {
+        try {
+            return ctx.getPackageManager().getPackageInfo(ctx.getPackageName(), 0).lastUpdateTime;
+        } catch (PackageManager.NameNotFoundException e) {
+            return 0;
+        }
+    }
+
+    private static MessageDigest sha256() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private static String hex(byte[] bytes) {
+        StringBuilder sb = new StringBuilder(bytes.length * 2);
+        for (byte b : bytes) {
+            sb.append(Character.forDigit((b >> 4) & 0xF, 16)).append(Character.forDigit(b & 0xF, 16));
+        }
+        return sb.toString();
+    }
+}
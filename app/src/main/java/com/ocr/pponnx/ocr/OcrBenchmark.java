@@ -0,0 +1,176 @@
+package com.ocr.pponnx.ocr;
+
+import android.content.Context;
+import android.util.Log;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 线程配置压测
+ * <pre>
+ *     对每组 (引擎数, intraOp, interOp) 新建一个引擎池，用与引擎数相同的并发
+ *     反复识别同一张图，统计吞吐和延迟分位数，用于选择 Server.WORKER_THREADS
+ *     和 Performance.INTRA_OP_THREADS / INTER_OP_THREADS
+ *
+ *     pipeline 模式下只建一组会话并开启流水线，engines 表示同时提交的调用线程数，
+ *     对应 Server.PIPELINE + WORKER_THREADS
+ * </pre>
+ */
+public class OcrBenchmark {
+
+    private static final String TAG = "OcrBenchmark";
+
+    public static class Result {
+        public int engines;
+        public int intraOpThreads;
+        public int interOpThreads;
+        public boolean pipeline;
+        public int requests;
+        public long initMs;
+        public long wallMs;
+        /** 每秒完成的请求数 */
+        public double throughput;
+        public long p50Ms;
+        public long p99Ms;
+        public long maxMs;
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject o = new JSONObject();
+            o.put("engines", engines);
+            o.put("intraOp", intraOpThreads);
+            o.put("interOp", interOpThreads);
+            o.put("pipeline", pipeline);
+            o.put("requests", requests);
+            o.put("initMs", initMs);
+            o.put("wallMs", wallMs);
+            o.put("throughput", Math.round(throughput * 100) / 100.0);
+            o.put("p50Ms", p50Ms);
+            o.put("p99Ms", p99Ms);
+            o.put("maxMs", maxMs);
+            return o;
+        }
+    }
+
+    /**
+     * 依次跑所有组合
+     */
+    public static List<Result> sweep(Context ctx, byte[] image, int[] engineCounts, int[] intraOps,
+                                     int[] interOps, boolean[] pipelines, int requests, int warmup) throws Exception {
+        List<Result> results = new ArrayList<>();
+        for (boolean pipeline : pipelines) {
+            for (int engines : engineCounts) {
+                for (int intra : intraOps) {
+                    for (int inter : interOps) {
+                        results.add(run(ctx, image, engines, intra, inter, pipeline, requests, warmup));
+                    }
+                }
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @param warmup 每个引擎正式计时前先跑的次数
+     */
+    public static Result run(Context ctx, final byte[] image, int engines, int intraOp, int interOp,
+                             boolean pipeline, final int requests, int warmup) throws Exception {
+        Result r = new Result();
+        r.engines = engines;
+        r.intraOpThreads = intraOp;
+        r.interOpThreads = interOp;
+        r.pipeline = pipeline;
+        r.requests = requests;
+
+        long t = System.currentTimeMillis();
+        final OcrEnginePool pool = pipeline
+                ? new OcrEnginePool(ctx, 1, intraOp, interOp, true)
+                : new OcrEnginePool(ctx, engines, intraOp, interOp);
+        if (pipeline) {
+            pool.enablePipeline(OcrConfig.Server.PIPELINE_QUEUE);
+        }
+        r.initMs = System.currentTimeMillis() - t;
+        try {
+            // 全部借出后逐个预热，保证每个引擎都跑到
+            List<OnnxOcrEngine> engineList = new ArrayList<>();
+            for (int i = 0; i < pool.size(); i++) {
+                engineList.add(pool.acquire());
+            }
+            try {
+                for (OnnxOcrEngine engine : engineList) {
+                    for (int k = 0; k < warmup; k++) {
+                        engine.runBytes(image, null);
+                    }
+                }
+            } finally {
+                for (OnnxOcrEngine engine : engineList) {
+                    pool.release(engine);
+                }
+            }
+
+            final long[] latencies = new long[requests];
+            final AtomicInteger next = new AtomicInteger();
+            final Exception[] error = new Exception[1];
+            Thread[] threads = new Thread[Math.max(1, engines)];
+            long start = System.nanoTime();
+            for (int i = 0; i < threads.length; i++) {
+                threads[i] = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        int idx;
+                        while ((idx = next.getAndIncrement()) < requests) {
+                            OnnxOcrEngine engine = null;
+                            try {
+                                engine = pool.acquire();
+                                long t0 = System.nanoTime();
+                                engine.runBytes(image, null);
+                                latencies[idx] = (System.nanoTime() - t0) / 1_000_000L;
+                            } catch (Exception e) {
+                                synchronized (error) {
+                                    error[0] = e;
+                                }
+                                break;
+                            } finally {
+                                pool.release(engine);
+                            }
+                        }
+                        TensorArena.releaseCurrent();
+                    }
+                }, "ocr-bench-" + i);
+                threads[i].start();
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+            r.wallMs = Math.max(1, (System.nanoTime() - start) / 1_000_000L);
+            synchronized (error) {
+                if (error[0] != null) throw error[0];
+            }
+
+            long[] sorted = latencies.clone();
+            Arrays.sort(sorted);
+            r.throughput = requests * 1000.0 / r.wallMs;
+            r.p50Ms = percentile(sorted, 0.5);
+            r.p99Ms = percentile(sorted, 0.99);
+            r.maxMs = sorted.length == 0 ? 0 : sorted[sorted.length - 1];
+            Log.i(TAG, "engines=" + engines + " intraOp=" + intraOp + " interOp=" + interOp + " pipeline=" + pipeline
+                    + " throughput=" + r.throughput + "/s p50=" + r.p50Ms + "ms p99=" + r.p99Ms + "ms");
+            return r;
+        } finally {
+            // 预热在调用线程里跑过
+            TensorArena.releaseCurrent();
+            pool.close();
+        }
+    }
+
+    private static long percentile(long[] sorted, double q) {
+        if (sorted.length == 0) return 0;
+        int idx = (int) Math.ceil(q * sorted.length) - 1;
+        return sorted[Math.max(0, Math.min(sorted.length - 1, idx))];
+    }
+}
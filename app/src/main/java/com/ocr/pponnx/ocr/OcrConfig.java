@@ -2,6 +2,10 @@ package com.ocr.pponnx.ocr;
 
 import android.util.Log;
 
+import java.util.Arrays;
+
+import ai.onnxruntime.OrtSession;
+
 /**
  * OCR配置参数类 - 完整版
  */
@@ -11,7 +15,36 @@ public class OcrConfig {
 
     // ========== 检测模型参数 ==========
     public static class Det {
+        /**
+         * det 输入的边长限制，配合 LIMIT_TYPE 使用
+         */
         public static int MAX_SIDE_LEN = 960;
+        /**
+         * det 输入缩放方式（同 PaddleOCR 的 limit_type），均保持宽高比，框映射回原图后从原图裁剪
+         * <pre>
+         *     max：最长边超过 MAX_SIDE_LEN 时缩小到 MAX_SIDE_LEN，小图不放大
+         *     min：最短边小于 MAX_SIDE_LEN 时放大到 MAX_SIDE_LEN
+         *     none：不缩放，只对齐到 RESIZE_MULTIPLE
+         *     max / min 下最长边都不超过 Preprocess.DET_MAX_RESIZE
+         *     det 耗时和内存与像素数成正比；小字较多的高分辨率截图可适当调大 MAX_SIDE_LEN
+         * </pre>
+         */
+        public static String LIMIT_TYPE = "max";
+        /**
+         * 超大/超长图分块检测
+         * <pre>
+         *     原图像素数超过 TILE_MIN_PIXELS 或长宽比超过 TILE_MIN_ASPECT 时不再整图缩放：
+         *     先把短边限制到 TILE_SHORT_SIDE（只缩小），再切成 TILE_SIZE 见方、相邻重叠 TILE_OVERLAP 的块，
+         *     每块用同一个固定尺寸的张量检测，det 内存与图片大小无关；跨接缝的框合并后输出
+         *     TILE_OVERLAP 应大于单行文字的高度（缩放后），否则跨缝的行只能按外接矩形拼接
+         * </pre>
+         */
+        public static boolean TILED = true;
+        public static int TILE_SIZE = 960;
+        public static int TILE_OVERLAP = 128;
+        public static int TILE_SHORT_SIDE = 960;
+        public static int TILE_MIN_PIXELS = 8_000_000;
+        public static float TILE_MIN_ASPECT = 3f;
 
         /**
          * 分数阈值
@@ -30,6 +63,8 @@ public class OcrConfig {
 
         public static void logConfig() {
             Log.i(TAG, "检测配置: maxSide=" + MAX_SIDE_LEN +
+                    ", limitType=" + LIMIT_TYPE +
+                    ", tiled=" + TILED + "(" + TILE_SIZE + "/" + TILE_OVERLAP + ")" +
                     ", boxThresh=" + BOX_THRESH +
                     ", scoreThresh=" + BOX_SCORE_THRESH +
                     ", padding=" + PADDING +
@@ -48,10 +83,19 @@ public class OcrConfig {
         public static boolean USE_CTC = true;
         public static boolean REMOVE_DUPLICATE = true;
         public static float REC_SCORE_THRESHOLD = 0.5f;//分数过滤标准
+        /**
+         * 批量识别每批最多裁剪图数量
+         * <pre>
+         *     裁剪图按宽高比排序后分批，同一批 pad 到该批最大宽度（PAD_MULTIPLE 对齐，不超过 MAX_WIDTH）
+         *     设为 1 等价于逐张识别
+         * </pre>
+         */
+        public static int BATCH_SIZE = 6;
 
         public static void logConfig() {
             Log.i(TAG, "识别配置: size=" + MAX_WIDTH + "x" + MAX_HEIGHT +
                     ", thresh=" + THRESH +
+                    ", batchSize=" + BATCH_SIZE +
                     ", useCTC=" + USE_CTC);
         }
     }
@@ -87,19 +131,76 @@ public class OcrConfig {
 
     // ========== 预处理参数 ==========
     public static class Preprocess {
-        public static float MEAN_R = 0.5f;
-        public static float MEAN_G = 0.5f;
-        public static float MEAN_B = 0.5f;
-        public static float STD_R = 0.5f;
-        public static float STD_G = 0.5f;
-        public static float STD_B = 0.5f;
+        /**
+         * det 输入归一化：(v/255 - mean) / std，按颜色分量给出
+         * <pre>
+         *     PaddleOCR det 训练时对 BGR 图按通道下标减 [0.485, 0.456, 0.406]、除 [0.229, 0.224, 0.225]，
+         *     换算到颜色分量即 B=0.485/0.229、G=0.456/0.224、R=0.406/0.225
+         *     mean 全 0、std 全 1 即只做 /255
+         * </pre>
+         */
+        public static float MEAN_R = 0.406f;
+        public static float MEAN_G = 0.456f;
+        public static float MEAN_B = 0.485f;
+        public static float STD_R = 0.225f;
+        public static float STD_G = 0.224f;
+        public static float STD_B = 0.229f;
+        /**
+         * det 输入张量的通道顺序：BGR（PaddleOCR 用 OpenCV 读图）或 RGB
+         */
+        public static String DET_CHANNEL_ORDER = "BGR";
+        /**
+         * det 预处理（缩放+归一化）按行分段并行的线程数上限，0 为核数，1 为不并行
+         */
+        public static int THREADS = 0;
+        /**
+         * det 输入像素数达到该值才并行，小图分段的调度开销比收益大
+         */
+        public static int PARALLEL_MIN_PIXELS = 512 * 512;
+        /** det 输入宽高对齐的倍数 */
         public static int RESIZE_MULTIPLE = 32;
+        /** det 输入最长边的上限，0 为不限 */
         public static int DET_MAX_RESIZE = 1216;
         public static boolean KEEP_ASPECT_RATIO = true;
 
         public static void logConfig() {
             Log.i(TAG, "预处理配置: mean=[" + MEAN_R + "," + MEAN_G + "," + MEAN_B + "]" +
-                    ", std=[" + STD_R + "," + STD_G + "," + STD_B + "]");
+                    ", std=[" + STD_R + "," + STD_G + "," + STD_B + "]" +
+                    ", order=" + DET_CHANNEL_ORDER +
+                    ", resizeMultiple=" + RESIZE_MULTIPLE +
+                    ", detMaxResize=" + DET_MAX_RESIZE +
+                    ", threads=" + THREADS +
+                    ", parallelMinPixels=" + PARALLEL_MIN_PIXELS);
+        }
+    }
+
+    // ========== 解码参数 ==========
+    public static class Decode {
+        /**
+         * 大图降采样解码：按 det 分辨率选 inSampleSize 解码检测，再按原分辨率只解码文本区域（见 SampledDecoder）
+         * <pre>
+         *     只对 byte[] 输入（base64、开启缓存时的上传）生效；流式上传无法二次读取，仍整图解码
+         * </pre>
+         */
+        public static boolean SUBSAMPLE = true;
+        /**
+         * 原图像素数达到该值才降采样
+         */
+        public static long SUBSAMPLE_MIN_PIXELS = 4_000_000;
+        /**
+         * 按原分辨率解码的一条区域的像素上限，相邻的框合并解码直到超出
+         */
+        public static long REGION_MAX_PIXELS = 2_000_000;
+        /**
+         * 区域在框外接矩形基础上外扩的像素
+         */
+        public static int REGION_MARGIN = 8;
+
+        public static void logConfig() {
+            Log.i(TAG, "解码配置: subsample=" + SUBSAMPLE +
+                    ", minPixels=" + SUBSAMPLE_MIN_PIXELS +
+                    ", regionMaxPixels=" + REGION_MAX_PIXELS +
+                    ", regionMargin=" + REGION_MARGIN);
         }
     }
 
@@ -107,12 +208,245 @@ public class OcrConfig {
     public static class Performance {
         public static boolean ENABLE_LOG = true;
         public static boolean ENABLE_TIMING = true;
-        public static int MAX_CONCURRENT = 1;
+        /**
+         * 每个引擎的 ORT 线程数，0 表示使用 ORT 默认值
+         * <pre>
+         *     引擎个数 = Server.WORKER_THREADS，每个工作线程独占一组会话
+         *     1 个引擎 + INTRA_OP_THREADS=核数：单个请求最快
+         *     N 个引擎 + INTRA_OP_THREADS=1：N 个请求各占一个核，吞吐更高
+         *     不同组合可用 POST /bench 实测
+         * </pre>
+         */
+        public static int INTRA_OP_THREADS = 0;
+        /**
+         * 算子间并行线程数，>1 时会话切换为并行执行模式
+         */
+        public static int INTER_OP_THREADS = 0;
+        /**
+         * 裁剪、cls/rec 缩放等中间 Bitmap 用完放回 BitmapPool 复用，整图解码时复用池里的 Bitmap（inBitmap）；
+         * false 则全部交给 GC
+         */
         public static boolean RECYCLE_BITMAPS = true;
+        /**
+         * BitmapPool 缓存的空闲 Bitmap 总字节数上限，超出的直接 recycle
+         */
+        public static long BITMAP_POOL_BYTES = 24L * 1024 * 1024;
 
         public static void logConfig() {
             Log.i(TAG, "性能配置: enableLog=" + ENABLE_LOG +
-                    ", enableTiming=" + ENABLE_TIMING);
+                    ", enableTiming=" + ENABLE_TIMING +
+                    ", intraOpThreads=" + INTRA_OP_THREADS +
+                    ", interOpThreads=" + INTER_OP_THREADS +
+                    ", recycleBitmaps=" + RECYCLE_BITMAPS +
+                    ", bitmapPoolBytes=" + BITMAP_POOL_BYTES);
+        }
+    }
+
+    // ========== 模型加载参数 ==========
+    public static class Model {
+        /**
+         * ORT 图优化级别
+         */
+        public static OrtSession.SessionOptions.OptLevel GRAPH_OPT_LEVEL = OrtSession.SessionOptions.OptLevel.ALL_OPT;
+        /**
+         * 优化后的图缓存
+         * <pre>
+         *     首次启动按 GRAPH_OPT_LEVEL 优化后以 ORT 格式写入 files/models/optimized，
+         *     之后直接加载、不再优化；模型 hash、ORT 版本、优化级别、CPU 架构任一变化都会重新生成
+         * </pre>
+         */
+        public static boolean OPTIMIZED_CACHE = true;
+        /**
+         * 各模型的执行后端：cpu / xnnpack / nnapi / auto
+         * <pre>
+         *     不可用或初始化失败时自动退回 cpu
+         *     auto 启动时对 cpu、xnnpack 各实测 AUTO_BENCH_RUNS 次，选单次推理最快的
+         *     非 cpu 后端不使用 OPTIMIZED_CACHE
+         * </pre>
+         */
+        public static String DET_PROVIDER = "xnnpack";
+        public static String REC_PROVIDER = "xnnpack";
+        public static String CLS_PROVIDER = "cpu";
+        public static int AUTO_BENCH_RUNS = 5;
+        /**
+         * fast 档位：请求 profile=fast 时使用量化（INT8）或 FP16 模型
+         * <pre>
+         *     模型放在 assets 中，文件名见下；缺少的模型用 FP32 版本，三个都没有则不加载 fast 档位
+         *     FP16 模型导出时需保留 FP32 输入输出（keep_io_types）
+         *     每个引擎多占一组会话的内存
+         * </pre>
+         */
+        public static boolean FAST_PROFILE = true;
+        public static String FAST_DET_MODEL = "ch_PP-OCRv4_det_infer_int8.onnx";
+        public static String FAST_REC_MODEL = "ch_PP-OCRv4_rec_infer_int8.onnx";
+        public static String FAST_CLS_MODEL = "ch_ppocr_mobile_v2.0_cls_infer_int8.onnx";
+
+        public static void logConfig() {
+            Log.i(TAG, "模型配置: graphOptLevel=" + GRAPH_OPT_LEVEL +
+                    ", optimizedCache=" + OPTIMIZED_CACHE +
+                    ", providers=det:" + DET_PROVIDER + "/rec:" + REC_PROVIDER + "/cls:" + CLS_PROVIDER +
+                    ", fastProfile=" + FAST_PROFILE);
+        }
+    }
+
+    // ========== 预热参数 ==========
+    public static class Warmup {
+        /**
+         * 启动后先用合成图预热，完成前 /ready 返回 503
+         * <pre>
+         *     ORT 对每个新的输入 shape 才分配内存、选择 kernel，不预热时前几个请求明显更慢
+         * </pre>
+         */
+        public static boolean ENABLED = true;
+        /**
+         * det 预热尺寸 {宽, 高}，取常见的截图尺寸（按 Det.LIMIT_TYPE 缩放后即为 det 输入 shape）
+         */
+        public static int[][] DET_SIZES = {{1080, 1920}, {720, 1280}, {1920, 1080}};
+        /**
+         * rec 预热的批大小，每个批大小覆盖所有宽度档位（32 ~ Rec.MAX_WIDTH，按 PAD_MULTIPLE）
+         */
+        public static int[] REC_BATCHES = {1, Rec.BATCH_SIZE};
+
+        public static void logConfig() {
+            Log.i(TAG, "预热配置: enabled=" + ENABLED +
+                    ", detSizes=" + DET_SIZES.length +
+                    ", recBatches=" + Arrays.toString(REC_BATCHES));
+        }
+    }
+
+    // ========== 服务参数 ==========
+    public static class Server {
+        /**
+         * 同时调用引擎的工作线程数，也是引擎（会话组）个数
+         */
+        public static int WORKER_THREADS = 1;
+        /**
+         * 等待队列长度，满了直接返回 429
+         */
+        public static int QUEUE_CAPACITY = 8;
+        /**
+         * 429 响应中 Retry-After 的最小秒数
+         */
+        public static int RETRY_AFTER_SECONDS = 1;
+        /**
+         * 未完成（排队/运行中）的异步任务上限，超出返回 429
+         */
+        public static int JOB_MAX_PENDING = 256;
+        /**
+         * 未完成的异步任务持有的图片总字节数上限，超出返回 429（只有一个任务时不限制）
+         */
+        public static long JOB_MAX_PENDING_BYTES = 64L * 1024 * 1024;
+        /**
+         * 已完成任务最多保留个数 / 保留时长，超出按完成先后淘汰
+         */
+        public static int JOB_MAX_FINISHED = 256;
+        public static long JOB_RETENTION_MS = 10 * 60 * 1000;
+        /**
+         * /rec 单次请求最多的行图片数
+         */
+        public static int REC_MAX_LINES = 128;
+        /**
+         * 流水线模式
+         * <pre>
+         *     开启后只加载一组会话，det / 裁剪+cls / rec 各一个线程，WORKER_THREADS 个工作线程
+         *     同时往流水线里送图（建议 >= 3），持续压力下吞吐更高；单个请求延迟不变或略高
+         * </pre>
+         */
+        public static boolean PIPELINE = false;
+        /**
+         * 流水线阶段之间的交接队列长度
+         */
+        public static int PIPELINE_QUEUE = 2;
+        /**
+         * 默认请求超时（毫秒，从请求到达开始算，含排队），0 为不限
+         * <pre>
+         *     请求参数 timeoutMs 或请求头 X-Timeout-Ms 可单独指定；到期后跳过剩余的区域/框/批次，
+         *     正在执行的 ORT run 通过 RunOptions 中止，返回已识别出的部分结果并标记 truncated
+         * </pre>
+         */
+        public static long DEFAULT_TIMEOUT_MS = 0;
+        /**
+         * 请求 body 上限（Content-Length），超出直接返回 413，不读取
+         */
+        public static long MAX_BODY_BYTES = 32L * 1024 * 1024;
+
+        public static void logConfig() {
+            Log.i(TAG, "服务配置: workers=" + WORKER_THREADS +
+                    ", queueCapacity=" + QUEUE_CAPACITY +
+                    ", retryAfter=" + RETRY_AFTER_SECONDS + "s" +
+                    ", jobMaxPending=" + JOB_MAX_PENDING +
+                    ", jobMaxPendingBytes=" + JOB_MAX_PENDING_BYTES +
+                    ", jobRetention=" + JOB_RETENTION_MS + "ms" +
+                    ", recMaxLines=" + REC_MAX_LINES +
+                    ", pipeline=" + PIPELINE +
+                    ", pipelineQueue=" + PIPELINE_QUEUE +
+                    ", defaultTimeout=" + DEFAULT_TIMEOUT_MS + "ms" +
+                    ", maxBodyBytes=" + MAX_BODY_BYTES);
+        }
+    }
+
+    // ========== 负载降级参数 ==========
+    public static class Degrade {
+        /**
+         * 排队变长时自动降低识别质量换取速度，负载下降后逐级恢复
+         * <pre>
+         *     按 排队任务数（含异步任务）× 平均耗时 / 工作线程数 估算排队等待：
+         *     超过 STEP_DOWN_WAIT_MS 降一档，低于 STEP_UP_WAIT_MS 升档，每 HOLD_MS 最多调整一档
+         * </pre>
+         */
+        public static boolean ENABLED = true;
+        /**
+         * 各档参数，下标即档位，0 档为正常质量（取值 0 表示按正常配置）
+         * <pre>
+         *     DET_MAX_SIDE   det 输入最长边上限
+         *     SKIP_CLS       跳过方向分类（DO_ANGLE 开启时才有区别）
+         *     REC_MAX_WIDTH  rec 输入宽度上限，超长的行压缩得更厉害
+         * </pre>
+         */
+        public static int[] DET_MAX_SIDE = {0, 736, 640, 480};
+        public static boolean[] SKIP_CLS = {false, false, true, true};
+        public static int[] REC_MAX_WIDTH = {0, 0, 0, 256};
+        public static long STEP_DOWN_WAIT_MS = 1000;
+        public static long STEP_UP_WAIT_MS = 200;
+        public static long HOLD_MS = 2000;
+
+        public static void logConfig() {
+            Log.i(TAG, "降级配置: enabled=" + ENABLED +
+                    ", detMaxSide=" + Arrays.toString(DET_MAX_SIDE) +
+                    ", skipCls=" + Arrays.toString(SKIP_CLS) +
+                    ", recMaxWidth=" + Arrays.toString(REC_MAX_WIDTH) +
+                    ", stepDown=" + STEP_DOWN_WAIT_MS + "ms" +
+                    ", stepUp=" + STEP_UP_WAIT_MS + "ms" +
+                    ", hold=" + HOLD_MS + "ms");
+        }
+    }
+
+    // ========== 结果缓存参数 ==========
+    public static class Cache {
+        /**
+         * 整图结果缓存开关
+         * <pre>
+         *     开启后不超过 MAX_IMAGE_BYTES 的二进制/multipart 上传会先把图片读成 byte[] 再计算 hash；
+         *     更大的上传、关闭缓存或请求头带 Cache-Control: no-store 时直接流式解码，不查也不写缓存
+         *     请求头 Cache-Control: no-cache 跳过查找（结果仍会写入）
+         * </pre>
+         */
+        public static boolean ENABLED = true;
+        /**
+         * 参与缓存的上传大小上限（按 Content-Length）
+         */
+        public static long MAX_IMAGE_BYTES = 4L * 1024 * 1024;
+        public static int MAX_ENTRIES = 64;
+        /**
+         * 结果序列化后的总字节预算
+         */
+        public static long MAX_BYTES = 2 * 1024 * 1024;
+
+        public static void logConfig() {
+            Log.i(TAG, "缓存配置: enabled=" + ENABLED +
+                    ", maxEntries=" + MAX_ENTRIES +
+                    ", maxImageBytes=" + MAX_IMAGE_BYTES +
+                    ", maxBytes=" + MAX_BYTES);
         }
     }
 
@@ -130,6 +464,18 @@ public class OcrConfig {
         }
     }
 
+    /**
+     * 影响识别结果的参数摘要，参数变化后旧的缓存结果自然失效
+     */
+    public static String fingerprint() {
+        return Det.MAX_SIDE_LEN + "," + Det.LIMIT_TYPE + "," + Decode.SUBSAMPLE + "," + Preprocess.DET_MAX_RESIZE + "," + Det.TILED +
+                "," + Preprocess.DET_CHANNEL_ORDER + "," + Preprocess.MEAN_R + "," + Preprocess.MEAN_G +
+                "," + Preprocess.MEAN_B + "," + Preprocess.STD_R + "," + Preprocess.STD_G + "," + Preprocess.STD_B +
+                "," + Det.TILE_SIZE + "," + Det.TILE_OVERLAP + "," + Det.TILE_SHORT_SIDE +
+                "," + Det.BOX_THRESH + "," + Det.BOX_SCORE_THRESH + "," + Det.DO_ANGLE +
+                "," + Rec.MAX_WIDTH + "," + Rec.REC_SCORE_THRESHOLD + "," + Cls.THRESH;
+    }
+
     /**
      * 输出所有配置
      */
@@ -140,7 +486,13 @@ public class OcrConfig {
         Cls.logConfig();
         Post.logConfig();
         Preprocess.logConfig();
+        Decode.logConfig();
         Performance.logConfig();
+        Model.logConfig();
+        Warmup.logConfig();
+        Server.logConfig();
+        Degrade.logConfig();
+        Cache.logConfig();
         Output.logConfig();
         Log.i(TAG, "==================");
     }
@@ -0,0 +1,223 @@
+package com.ocr.pponnx.ocr;
+
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * 单个请求的截止时间与取消
+ * <pre>
+ *     到期或 cancel() 后，阶段之间、裁剪/批次之间的检查点跳过剩余工作，
+ *     正在执行的 ORT run 通过 RunOptions.setTerminate 中止；已经得到的结果照常返回，truncated() 为 true
+ *
+ *     引擎内部通过 current() 取当前线程正在处理的请求，runBitmap 和流水线各阶段负责 bind
+ *
+ *     watch() 挂上客户端连接探测后，检查点（最多每 PROBE_INTERVAL_MS 一次）发现对端已断开就 cancel()；
+ *     ORT run 执行期间不探测，断开要等到下一个检查点才生效
+ * </pre>
+ */
+public class OcrDeadline {
+
+    private static final String TAG = "OcrDeadline";
+
+    private static final long PROBE_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    /** 没有截止时间、不可取消 */
+    public static final OcrDeadline NONE = new OcrDeadline(0, false);
+
+    private static final ThreadLocal<OcrDeadline> CURRENT = new ThreadLocal<OcrDeadline>() {
+        @Override
+        protected OcrDeadline initialValue() {
+            return NONE;
+        }
+    };
+
+    /**
+     * 客户端连接探测
+     */
+    public interface Probe {
+        /** 对端已断开返回 true */
+        boolean gone();
+    }
+
+    /** 到期时终止正在执行的 run */
+    private static ScheduledThreadPoolExecutor timer;
+
+    private final long deadlineNanos;
+    private final boolean bounded;
+    private volatile boolean cancelled;
+    private volatile boolean truncated;
+    /** 正在执行的 run 及其到期任务 */
+    private final Map<OrtSession.RunOptions, ScheduledFuture<?>> running = new HashMap<>();
+    private volatile Probe probe;
+    /** 上次探测时间，受 this 保护 */
+    private long probedAt;
+
+    private OcrDeadline(long deadlineNanos, boolean bounded) {
+        this.deadlineNanos = deadlineNanos;
+        this.bounded = bounded;
+    }
+
+    /**
+     * @param startNanos 计时起点（System.nanoTime()），一般为请求到达时间，排队时间也计入
+     */
+    public static OcrDeadline after(long startNanos, long timeoutMs) {
+        return new OcrDeadline(startNanos + TimeUnit.MILLISECONDS.toNanos(timeoutMs), true);
+    }
+
+    /**
+     * 没有截止时间，但可以 cancel()
+     */
+    public static OcrDeadline cancellable() {
+        return new OcrDeadline(0, false);
+    }
+
+    public static OcrDeadline current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程正在处理的请求
+     *
+     * @return 之前绑定的，处理完后再 bind 回去
+     */
+    public static OcrDeadline bind(OcrDeadline deadline) {
+        OcrDeadline prev = CURRENT.get();
+        CURRENT.set(deadline == null ? NONE : deadline);
+        return prev;
+    }
+
+    /**
+     * 客户端断开时取消；null 取消探测（请求处理完后必须取消，连接会被下一个请求复用）
+     */
+    public void watch(Probe probe) {
+        if (this == NONE) return;
+        synchronized (this) {
+            probedAt = System.nanoTime() - PROBE_INTERVAL_NANOS;
+        }
+        this.probe = probe;
+    }
+
+    public boolean expired() {
+        return cancelled || (bounded && System.nanoTime() - deadlineNanos >= 0) || clientGone();
+    }
+
+    private boolean clientGone() {
+        Probe p = probe;
+        if (p == null) return false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            if (now - probedAt < PROBE_INTERVAL_NANOS) return false;
+            probedAt = now;
+        }
+        if (!p.gone()) return false;
+        Log.d(TAG, "客户端已断开，取消请求");
+        probe = null;
+        cancel();
+        return true;
+    }
+
+    /**
+     * 检查点：已到期则记为截断并返回 true，调用方跳过剩余工作
+     */
+    public boolean exceeded() {
+        if (!expired()) return false;
+        truncated = true;
+        return true;
+    }
+
+    /**
+     * 是否因到期/取消少做了工作（结果不完整）
+     */
+    public boolean truncated() {
+        return truncated;
+    }
+
+    /**
+     * 中止正在执行的 run，之后的检查点都会跳过
+     */
+    public void cancel() {
+        if (this == NONE) return;
+        cancelled = true;
+        synchronized (running) {
+            for (OrtSession.RunOptions options : running.keySet()) {
+                terminate(options);
+            }
+        }
+    }
+
+    /**
+     * 为一次 run 创建 RunOptions，到期时自动 setTerminate；NONE 返回 null（不带 RunOptions 执行）
+     */
+    public OrtSession.RunOptions begin() throws OrtException {
+        if (this == NONE) return null;
+        OrtSession.RunOptions options = new OrtSession.RunOptions();
+        synchronized (running) {
+            ScheduledFuture<?> timeout = null;
+            if (expired()) {
+                options.setTerminate(true);
+            } else if (bounded) {
+                final OrtSession.RunOptions target = options;
+                timeout = timer().schedule(new Runnable() {
+                    @Override
+                    public void run() {
+                        synchronized (running) {
+                            if (running.containsKey(target)) terminate(target);
+                        }
+                    }
+                }, deadlineNanos - System.nanoTime(), TimeUnit.NANOSECONDS);
+            }
+            running.put(options, timeout);
+        }
+        return options;
+    }
+
+    public void end(OrtSession.RunOptions options) {
+        if (options == null) return;
+        synchronized (running) {
+            ScheduledFuture<?> timeout = running.remove(options);
+            if (timeout != null) timeout.cancel(false);
+        }
+        options.close();
+    }
+
+    /**
+     * run 抛出异常后判断是否为到期中止：是则记为截断，调用方按“没有结果”处理；否则调用方继续抛出
+     */
+    public boolean aborted(OrtException e) {
+        if (!exceeded()) return false;
+        Log.d(TAG, "run 已中止: " + e.getMessage());
+        return true;
+    }
+
+    private static void terminate(OrtSession.RunOptions options) {
+        try {
+            options.setTerminate(true);
+        } catch (OrtException e) {
+            Log.w(TAG, "setTerminate 失败", e);
+        }
+    }
+
+    private static synchronized ScheduledThreadPoolExecutor timer() {
+        if (timer == null) {
+            timer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ocr-deadline");
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            timer.setRemoveOnCancelPolicy(true);
+        }
+        return timer;
+    }
+}
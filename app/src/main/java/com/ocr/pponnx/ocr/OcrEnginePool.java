@@ -0,0 +1,165 @@
+package com.ocr.pponnx.ocr;
+
+import android.content.Context;
+import android.util.Log;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 引擎池
+ * <pre>
+ *     每个引擎持有独立的 det/rec/cls 会话和各自的 ORT 线程池，
+ *     工作线程执行时借出一个，用完归还；引擎数与工作线程数相同时不会等待
+ *
+ *     shared 模式下不独占：借出时轮流返回，多个线程可以同时使用同一个引擎
+ *     （ORT 会话本身支持并发 run，流水线模式下用这种方式共享一组会话）
+ * </pre>
+ */
+public class OcrEnginePool {
+
+    private static final String TAG = "OcrEnginePool";
+
+    private final List<OnnxOcrEngine> all = new ArrayList<>();
+    private final BlockingQueue<OnnxOcrEngine> idle;
+    private final int intraOpThreads;
+    private final int interOpThreads;
+    private final boolean shared;
+    private final AtomicInteger next = new AtomicInteger();
+
+    public OcrEnginePool(Context ctx, int size, int intraOpThreads, int interOpThreads) {
+        this(ctx, size, intraOpThreads, interOpThreads, false);
+    }
+
+    public OcrEnginePool(Context ctx, int size, int intraOpThreads, int interOpThreads, boolean shared) {
+        size = Math.max(1, size);
+        this.shared = shared;
+        this.intraOpThreads = intraOpThreads;
+        this.interOpThreads = interOpThreads;
+        this.idle = new ArrayBlockingQueue<>(size);
+        long t = System.currentTimeMillis();
+        for (int i = 0; i < size; i++) {
+            OnnxOcrEngine engine = new OnnxOcrEngine(ctx, intraOpThreads, interOpThreads);
+            all.add(engine);
+            idle.add(engine);
+        }
+        Log.i(TAG, "引擎池初始化完成: size=" + size + " intraOp=" + intraOpThreads
+                + " interOp=" + interOpThreads + " shared=" + shared + " 耗时=" + (System.currentTimeMillis() - t) + "ms");
+    }
+
+    /**
+     * 借出一个引擎，没有空闲的则等待
+     */
+    public OnnxOcrEngine acquire() throws InterruptedException {
+        if (shared) {
+            return all.get((next.getAndIncrement() & Integer.MAX_VALUE) % all.size());
+        }
+        return idle.take();
+    }
+
+    public void release(OnnxOcrEngine engine) {
+        if (engine != null && !shared) {
+            idle.offer(engine);
+        }
+    }
+
+    public int size() {
+        return all.size();
+    }
+
+    public int idleCount() {
+        return shared ? all.size() : idle.size();
+    }
+
+    /**
+     * 全部借出后每个引擎一个线程并行预热，完成前 acquire 会等待（shared 模式下直接预热）
+     *
+     * @return 耗时（毫秒）
+     */
+    public long warmUp() throws Exception {
+        long t = System.currentTimeMillis();
+        List<OnnxOcrEngine> engines = new ArrayList<>();
+        for (int i = 0; i < all.size(); i++) {
+            engines.add(acquire());
+        }
+        final Exception[] error = new Exception[1];
+        List<Thread> threads = new ArrayList<>();
+        try {
+            for (int i = 0; i < engines.size(); i++) {
+                final OnnxOcrEngine engine = engines.get(i);
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        try {
+                            engine.warmUp();
+                        } catch (Exception e) {
+                            synchronized (error) {
+                                error[0] = e;
+                            }
+                        } finally {
+                            TensorArena.releaseCurrent();
+                        }
+                    }
+                }, "ocr-warmup-" + i);
+                thread.start();
+                threads.add(thread);
+            }
+            for (Thread thread : threads) {
+                thread.join();
+            }
+        } finally {
+            for (OnnxOcrEngine engine : engines) {
+                release(engine);
+            }
+        }
+        synchronized (error) {
+            if (error[0] != null) throw error[0];
+        }
+        long ms = System.currentTimeMillis() - t;
+        Log.i(TAG, "引擎池预热完成: size=" + all.size() + " 耗时=" + ms + "ms");
+        return ms;
+    }
+
+    /**
+     * 对全部引擎开启流水线，见 OnnxOcrEngine.enablePipeline
+     */
+    public void enablePipeline(int queueCapacity) {
+        for (OnnxOcrEngine engine : all) {
+            engine.enablePipeline(queueCapacity);
+        }
+    }
+
+    /**
+     * 流水线中未完成的图片数
+     */
+    public int pipelineInFlight() {
+        int n = 0;
+        for (OnnxOcrEngine engine : all) {
+            OcrPipeline p = engine.pipeline();
+            if (p != null) n += p.inFlight();
+        }
+        return n;
+    }
+
+    public int intraOpThreads() {
+        return intraOpThreads;
+    }
+
+    public int interOpThreads() {
+        return interOpThreads;
+    }
+
+    /**
+     * 关闭全部会话，调用前应确保没有借出的引擎
+     */
+    public void close() {
+        for (OnnxOcrEngine engine : all) {
+            engine.release();
+        }
+        all.clear();
+        idle.clear();
+    }
+}
@@ -0,0 +1,62 @@
+package com.ocr.pponnx.ocr;
+
+import android.graphics.PointF;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 单次识别请求的参数（全局参数见 OcrConfig）
+ */
+public class OcrOptions {
+
+    /** 默认档位：FP32 模型 */
+    public static final String PROFILE_ACCURATE = "accurate";
+    /** 量化/FP16 模型，见 OcrConfig.Model.FAST_PROFILE */
+    public static final String PROFILE_FAST = "fast";
+
+    /**
+     * 调用方指定的文字区域（原图坐标，四点顺时针），为空表示整图检测
+     */
+    public List<PointF[]> regions = new ArrayList<>();
+    /**
+     * 有 regions 时是否在每个区域内再跑一次检测；false 则把区域直接当作文本框，只做 cls/rec
+     */
+    public boolean regionDet = false;
+    /**
+     * 模型档位：accurate / fast；fast 档位未加载时按 accurate 处理
+     */
+    public String profile = PROFILE_ACCURATE;
+    /**
+     * 请求要求的处理时限（毫秒），0 为不限；由服务端换算成 deadline
+     */
+    public long timeoutMs = 0;
+    /**
+     * 截止时间/取消，见 OcrDeadline
+     */
+    public OcrDeadline deadline = OcrDeadline.NONE;
+    /**
+     * 负载降级档位，由服务端按当前负载设置，见 QualityTier
+     */
+    public QualityTier tier = QualityTier.FULL;
+
+    public boolean hasRegions() {
+        return regions != null && !regions.isEmpty();
+    }
+
+    /**
+     * 影响结果的参数摘要，用于结果缓存 key
+     */
+    public String cacheKey() {
+        String prefix = PROFILE_FAST.equals(profile) ? "fast|" : "";
+        if (!hasRegions()) return prefix;
+        StringBuilder sb = new StringBuilder(prefix).append(regionDet ? "rd" : "r");
+        for (PointF[] quad : regions) {
+            sb.append('|');
+            for (PointF p : quad) {
+                sb.append(p.x).append(',').append(p.y).append(',');
+            }
+        }
+        return sb.toString();
+    }
+}
@@ -0,0 +1,241 @@
+package com.ocr.pponnx.ocr;
+
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 分阶段流水线
+ * <pre>
+ *     det → 裁剪+cls → rec，每个阶段一个线程，阶段之间用有界队列交接：
+ *     第 N 张图在 rec 时第 N+1 张图已经在跑 det，持续压力下每个会话都不空闲
+ *
+ *     解码在调用线程（工作线程）里完成，序列化在 HTTP 线程里完成，本身就是并行的；
+ *     下游队列满时上游阶段阻塞，未完成的图片数不会超过 调用线程数
+ *
+ *     阶段线程由所有请求共用，不能做任何客户端 IO：rec 阶段逐行产出的结果只放进该图片的无界事件队列，
+ *     由提交它的调用线程取出后回调 listener，慢客户端只阻塞它自己的工作线程
+ *
+ *     shutdown() 后不再接受新图片；还在队列里的图片以 CancellationException 结束，调用线程不会一直等下去
+ * </pre>
+ */
+public class OcrPipeline {
+
+    private static final String TAG = "OcrPipeline";
+
+    private final OnnxOcrEngine engine;
+    private final Stage detStage;
+    private final Stage cropStage;
+    private final Stage recStage;
+    private final AtomicInteger inFlight = new AtomicInteger();
+    private volatile boolean closed;
+
+    OcrPipeline(OnnxOcrEngine engine, int queueCapacity) {
+        this.engine = engine;
+        int capacity = Math.max(1, queueCapacity);
+        // 倒序创建，每个阶段完成后交给下一个
+        recStage = new Stage("rec", capacity, null) {
+            @Override
+            void process(final Job job) throws Exception {
+                OcrResultListener deliver = null;
+                if (job.listener != null) {
+                    deliver = new OcrResultListener() {
+                        @Override
+                        public void onResult(int index, OcrResult result) {
+                            job.events.offer(new Line(index, result));
+                        }
+                    };
+                }
+                job.results = OcrPipeline.this.engine.recognizeCrops(job.crops, job.boxes, deliver);
+                job.crops = null;
+            }
+        };
+        cropStage = new Stage("crop", capacity, recStage) {
+            @Override
+            void process(Job job) throws Exception {
+                job.crops = OcrPipeline.this.engine.cropLines(job.src, job.boxes);
+                job.src = null;
+            }
+        };
+        detStage = new Stage("det", capacity, cropStage) {
+            @Override
+            void process(Job job) throws Exception {
+                // 排队时已经超时的图不再检测，后面两个阶段也就没有框
+                job.boxes = job.options.deadline.exceeded()
+                        ? new ArrayList<PointF[]>() : OcrPipeline.this.engine.detectBoxes(job.src, job.options);
+            }
+        };
+        Log.i(TAG, "流水线已启动: queueCapacity=" + capacity);
+    }
+
+    /**
+     * 提交一张图并等待结果；listener 在调用线程中回调
+     * <pre>
+     *     listener 抛出异常（如客户端已断开）后不再回调，可取消的请求同时取消剩余的识别，
+     *     等这张图离开流水线后再把异常抛给调用方
+     * </pre>
+     */
+    public List<OcrResult> run(Bitmap src, OcrOptions options, OcrResultListener listener) throws Exception {
+        if (closed) throw new CancellationException("流水线已关闭");
+        Job job = new Job(src, options, listener);
+        Exception listenerError = null;
+        inFlight.incrementAndGet();
+        try {
+            detStage.put(job);
+            // 与 shutdown() 并发时，放进队列的图片可能错过了 shutdown 的清理
+            if (closed) drain(detStage);
+            Object event;
+            while ((event = job.events.take()) != DONE) {
+                if (listenerError != null) continue;
+                Line line = (Line) event;
+                try {
+                    listener.onResult(line.index, line.result);
+                } catch (Exception e) {
+                    listenerError = e;
+                    options.deadline.cancel();
+                }
+            }
+        } finally {
+            inFlight.decrementAndGet();
+        }
+        if (listenerError != null) throw listenerError;
+        if (job.error != null) {
+            if (job.error instanceof Exception) throw (Exception) job.error;
+            throw new ExecutionException(job.error);
+        }
+        return job.results;
+    }
+
+    /**
+     * 已提交但尚未完成的图片数
+     */
+    public int inFlight() {
+        return inFlight.get();
+    }
+
+    /**
+     * 停止各阶段线程；正在处理的图片在当前阶段结束后退出，队列中的图片以 CancellationException 结束
+     */
+    public void shutdown() {
+        closed = true;
+        detStage.thread.interrupt();
+        cropStage.thread.interrupt();
+        recStage.thread.interrupt();
+        drain(detStage);
+        drain(cropStage);
+        drain(recStage);
+    }
+
+    private static void drain(Stage stage) {
+        Job job;
+        while ((job = stage.queue.poll()) != null) {
+            job.error = new CancellationException("流水线已关闭");
+            job.events.offer(DONE);
+        }
+    }
+
+    private static class Job {
+        Bitmap src;
+        final OcrOptions options;
+        final OcrResultListener listener;
+        List<PointF[]> boxes;
+        List<TextLine> crops;
+        List<OcrResult> results;
+        Throwable error;
+        /** 进入当前阶段队列的时间 */
+        long enqueuedAt;
+        /** rec 阶段产出的 Line，最后是 DONE */
+        final BlockingQueue<Object> events = new LinkedBlockingQueue<>();
+
+        Job(Bitmap src, OcrOptions options, OcrResultListener listener) {
+            this.src = src;
+            this.options = options;
+            this.listener = listener;
+        }
+    }
+
+    /** 一张图处理结束（成功或失败） */
+    private static final Object DONE = new Object();
+
+    private static class Line {
+        final int index;
+        final OcrResult result;
+
+        Line(int index, OcrResult result) {
+            this.index = index;
+            this.result = result;
+        }
+    }
+
+    /**
+     * 单线程阶段：从自己的队列取任务，处理完放进下一阶段的队列（满则阻塞）
+     */
+    private abstract static class Stage implements Runnable {
+        final String name;
+        final BlockingQueue<Job> queue;
+        final Stage next;
+        final Thread thread;
+
+        Stage(String name, int capacity, Stage next) {
+            this.name = name;
+            this.queue = new ArrayBlockingQueue<>(capacity);
+            this.next = next;
+            this.thread = new Thread(this, "ocr-pipeline-" + name);
+            this.thread.setDaemon(true);
+            this.thread.start();
+        }
+
+        abstract void process(Job job) throws Exception;
+
+        void put(Job job) throws InterruptedException {
+            job.enqueuedAt = System.nanoTime();
+            queue.put(job);
+        }
+
+        @Override
+        public void run() {
+            while (!Thread.currentThread().isInterrupted()) {
+                Job job;
+                try {
+                    job = queue.take();
+                } catch (InterruptedException e) {
+                    break;
+                }
+                OcrMetrics.record(OcrMetrics.Stage.PIPELINE_WAIT, job.enqueuedAt);
+                OcrDeadline prev = OcrDeadline.bind(job.options.deadline);
+                QualityTier prevTier = QualityTier.bind(job.options.tier);
+                try {
+                    process(job);
+                    if (next != null) {
+                        next.put(job);
+                        continue;
+                    }
+                } catch (InterruptedException e) {
+                    job.error = e;
+                    job.events.offer(DONE);
+                    break;
+                } catch (Throwable e) {
+                    Log.e(TAG, name + " 阶段失败", e);
+                    job.error = e;
+                } finally {
+                    OcrDeadline.bind(prev);
+                    QualityTier.bind(prevTier);
+                }
+                job.events.offer(DONE);
+            }
+            TensorArena.releaseCurrent();
+            Log.i(TAG, name + " 阶段已停止");
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package com.ocr.pponnx.ocr;
+
+import android.util.Log;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * accurate / fast 两档模型对比
+ * <pre>
+ *     同一批图片分别用两档模型识别，统计各自的延迟，以及 fast 相对 accurate 的文本一致性：
+ *       lineAgreement  accurate 的文本行中，fast 识别出完全相同文本的比例（按多重集合匹配，不看位置）
+ *       charSimilarity 整图文本（按结果顺序换行拼接）的 1 - 编辑距离/较长长度，取各图平均
+ *     用于按业务判断便宜的模型是否够用
+ * </pre>
+ */
+public class OcrProfileComparison {
+
+    private static final String TAG = "OcrProfileComparison";
+
+    public static class Result {
+        public int images;
+        public long accurateP50Ms;
+        public long fastP50Ms;
+        public double accurateMeanMs;
+        public double fastMeanMs;
+        public double lineAgreement;
+        public double charSimilarity;
+        /** 文本完全相同的图片数 */
+        public int identicalImages;
+        public final List<ImageResult> details = new ArrayList<>();
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject o = new JSONObject();
+            o.put("images", images);
+            o.put("accurateP50Ms", accurateP50Ms);
+            o.put("fastP50Ms", fastP50Ms);
+            o.put("accurateMeanMs", round(accurateMeanMs));
+            o.put("fastMeanMs", round(fastMeanMs));
+            o.put("speedup", fastMeanMs > 0 ? round(accurateMeanMs / fastMeanMs) : 0);
+            o.put("lineAgreement", round(lineAgreement));
+            o.put("charSimilarity", round(charSimilarity));
+            o.put("identicalImages", identicalImages);
+            JSONArray arr = new JSONArray();
+            for (ImageResult d : details) {
+                arr.put(d.toJson());
+            }
+            o.put("details", arr);
+            return o;
+        }
+    }
+
+    public static class ImageResult {
+        public int index;
+        public long accurateMs;
+        public long fastMs;
+        public int accurateLines;
+        public int fastLines;
+        public int matchedLines;
+        public double charSimilarity;
+
+        public JSONObject toJson() throws JSONException {
+            JSONObject o = new JSONObject();
+            o.put("index", index);
+            o.put("accurateMs", accurateMs);
+            o.put("fastMs", fastMs);
+            o.put("accurateLines", accurateLines);
+            o.put("fastLines", fastLines);
+            o.put("matchedLines", matchedLines);
+            o.put("charSimilarity", round(charSimilarity));
+            return o;
+        }
+    }
+
+    /**
+     * @param accurate 加载 FP32 模型的引擎
+     * @param fast     加载 fast 档位模型的引擎
+     * @param warmup   正式计时前每档先用第一张图跑的次数
+     */
+    public static Result run(OnnxOcrEngine accurate, OnnxOcrEngine fast, List<byte[]> images,
+                             int warmup) throws Exception {
+        for (int k = 0; k < warmup && !images.isEmpty(); k++) {
+            accurate.runBytes(images.get(0), null);
+            fast.runBytes(images.get(0), null);
+        }
+
+        Result r = new Result();
+        r.images = images.size();
+        long[] accurateMs = new long[images.size()];
+        long[] fastMs = new long[images.size()];
+        int totalLines = 0;
+        int totalMatched = 0;
+        double similaritySum = 0;
+        for (int i = 0; i < images.size(); i++) {
+            byte[] image = images.get(i);
+            long t = System.nanoTime();
+            List<OcrResult> a = accurate.runBytes(image, null);
+            accurateMs[i] = (System.nanoTime() - t) / 1_000_000L;
+            t = System.nanoTime();
+            List<OcrResult> b = fast.runBytes(image, null);
+            fastMs[i] = (System.nanoTime() - t) / 1_000_000L;
+
+            ImageResult d = new ImageResult();
+            d.index = i;
+            d.accurateMs = accurateMs[i];
+            d.fastMs = fastMs[i];
+            d.accurateLines = a.size();
+            d.fastLines = b.size();
+            d.matchedLines = matchLines(a, b);
+            String textA = joinText(a);
+            String textB = joinText(b);
+            d.charSimilarity = similarity(textA, textB);
+            if (textA.equals(textB)) r.identicalImages++;
+            r.details.add(d);
+
+            totalLines += d.accurateLines;
+            totalMatched += d.matchedLines;
+            similaritySum += d.charSimilarity;
+        }
+        r.accurateMeanMs = mean(accurateMs);
+        r.fastMeanMs = mean(fastMs);
+        r.accurateP50Ms = median(accurateMs);
+        r.fastP50Ms = median(fastMs);
+        r.lineAgreement = totalLines == 0 ? 1 : (double) totalMatched / totalLines;
+        r.charSimilarity = images.isEmpty() ? 1 : similaritySum / images.size();
+        Log.i(TAG, "images=" + r.images + " accurate=" + r.accurateMeanMs + "ms fast=" + r.fastMeanMs
+                + "ms lineAgreement=" + r.lineAgreement + " charSimilarity=" + r.charSimilarity);
+        return r;
+    }
+
+    /**
+     * a 中的每一行在 b 中找一行相同文本（每行只能匹配一次）
+     */
+    private static int matchLines(List<OcrResult> a, List<OcrResult> b) {
+        Map<String, Integer> remaining = new HashMap<>();
+        for (OcrResult r : b) {
+            Integer n = remaining.get(r.text);
+            remaining.put(r.text, n == null ? 1 : n + 1);
+        }
+        int matched = 0;
+        for (OcrResult r : a) {
+            Integer n = remaining.get(r.text);
+            if (n != null && n > 0) {
+                remaining.put(r.text, n - 1);
+                matched++;
+            }
+        }
+        return matched;
+    }
+
+    private static String joinText(List<OcrResult> results) {
+        StringBuilder sb = new StringBuilder();
+        for (OcrResult r : results) {
+            if (sb.length() > 0) sb.append('\n');
+            sb.append(r.text);
+        }
+        return sb.toString();
+    }
+
+    /**
+     * 1 - 编辑距离 / 较长字符串长度，两个都为空时为 1
+     */
+    static double similarity(String a, String b) {
+        int max = Math.max(a.length(), b.length());
+        if (max == 0) return 1;
+        int[] prev = new int[b.length() + 1];
+        int[] cur = new int[b.length() + 1];
+        for (int j = 0; j <= b.length(); j++) {
+            prev[j] = j;
+        }
+        for (int i = 1; i <= a.length(); i++) {
+            cur[0] = i;
+            char ca = a.charAt(i - 1);
+            for (int j = 1; j <= b.length(); j++) {
+                int cost = ca == b.charAt(j - 1) ? 0 : 1;
+                cur[j] = Math.min(Math.min(cur[j - 1] + 1, prev[j] + 1), prev[j - 1] + cost);
+            }
+            int[] tmp = prev;
+            prev = cur;
+            cur = tmp;
+        }
+        return 1 - (double) prev[b.length()] / max;
+    }
+
+    private static double mean(long[] values) {
+        if (values.length == 0) return 0;
+        long sum = 0;
+        for (long v : values) {
+            sum += v;
+        }
+        return (double) sum / values.length;
+    }
+
+    private static long median(long[] values) {
+        if (values.length == 0) return 0;
+        long[] sorted = values.clone();
+        Arrays.sort(sorted);
+        return sorted[sorted.length / 2];
+    }
+
+    private static double round(double v) {
+        return Math.round(v * 1000) / 1000.0;
+    }
+}
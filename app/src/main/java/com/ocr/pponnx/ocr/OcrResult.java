@@ -8,6 +8,16 @@ public class OcrResult {
     public int x, y, width, height;
     public float score;
 
+    public OcrResult copy() {
+        OcrResult r = new OcrResult();
+        r.text = text;
+        r.x = x;
+        r.y = y;
+        r.width = width;
+        r.height = height;
+        r.score = score;
+        return r;
+    }
 
     public JSONObject toJson() throws JSONException {
         JSONObject o = new JSONObject();
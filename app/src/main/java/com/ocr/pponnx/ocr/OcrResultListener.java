@@ -0,0 +1,13 @@
+package com.ocr.pponnx.ocr;
+
+/**
+ * 逐行识别回调，每条文本识别完成（并通过分数过滤）后立即调用
+ */
+public interface OcrResultListener {
+
+    /**
+     * @param index  该文本框在检测结果中的序号（批量识别按宽度分批，回调顺序不保证与序号一致）
+     * @param result 识别结果
+     */
+    void onResult(int index, OcrResult result) throws Exception;
+}
@@ -3,13 +3,12 @@ package com.ocr.pponnx.ocr;
 import android.graphics.Bitmap;
 import android.graphics.Canvas;
 import android.graphics.Color;
-import android.graphics.Matrix;
 import android.graphics.PointF;
 import android.graphics.Paint;
+import android.graphics.RectF;
 
-import com.ocr.pponnx.ocr.det.RotatedBox;
-
-import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
 import java.util.List;
 
 import ai.onnxruntime.OnnxTensor;
@@ -17,42 +16,6 @@ import ai.onnxruntime.OrtSession;
 
 public class OcrUtils {
 
-    /**
-     * 将旋转矩形裁剪为 Bitmap
-     */
-    public static Bitmap cropRotatedBox(Bitmap src, RotatedBox box) {
-        PointF[] poly = box.toPolygon();
-        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE, maxX = 0, maxY = 0;
-        for (PointF p : poly) {
-            minX = Math.min(minX, p.x);
-            minY = Math.min(minY, p.y);
-            maxX = Math.max(maxX, p.x);
-            maxY = Math.max(maxY, p.y);
-        }
-
-        int width = (int) (maxX - minX);
-        int height = (int) (maxY - minY);
-        Bitmap cropped = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
-        Canvas canvas = new Canvas(cropped);
-        Matrix matrix = new Matrix();
-        matrix.postTranslate(-minX, -minY);
-        canvas.drawBitmap(src, matrix, null);
-        return cropped;
-    }
-
-    /**
-     * 根据 Cls 结果旋转 Bitmap
-     */
-    public static Bitmap rotateBitmap(Bitmap bmp, ClsPostProcess.TextDirection dir) {
-        Matrix matrix = new Matrix();
-        if (dir == ClsPostProcess.TextDirection.ROTATE_180) {
-            matrix.postRotate(180);
-        } else if (dir == ClsPostProcess.TextDirection.HORIZONTAL) {
-            matrix.postRotate(0);
-        }
-        return Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, true);
-    }
-
     /**
      * 将二维 float 数组展平为一维
      */
@@ -108,6 +71,21 @@ public class OcrUtils {
         return sb.toString();
     }
 
+    /**
+     * 多边形外接矩形
+     */
+    public static RectF boundsOf(PointF[] poly) {
+        float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+        float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+        for (PointF p : poly) {
+            minX = Math.min(minX, p.x);
+            minY = Math.min(minY, p.y);
+            maxX = Math.max(maxX, p.x);
+            maxY = Math.max(maxY, p.y);
+        }
+        return new RectF(minX, minY, maxX, maxY);
+    }
+
     /**
      * 计算 RotatedBox 的中心点
      */
@@ -121,34 +99,51 @@ public class OcrUtils {
     }
 
     /**
-     * RotatedBox 宽度（approx）
+     * RotatedBox 宽度：排列后上下两条边的平均长度
      */
     public static float getBoxWidth(PointF[] poly) {
-        float minX = Float.MAX_VALUE, maxX = 0;
-        for (PointF p : poly) {
-            minX = Math.min(minX, p.x);
-            maxX = Math.max(maxX, p.x);
-        }
-        return maxX - minX;
+        PointF[] p = orderQuad(poly);
+        return (distance(p[0], p[1]) + distance(p[3], p[2])) / 2;
     }
 
     /**
-     * RotatedBox 高度（approx）
+     * RotatedBox 高度：排列后左右两条边的平均长度
      */
     public static float getBoxHeight(PointF[] poly) {
-        float minY = Float.MAX_VALUE, maxY = 0;
-        for (PointF p : poly) {
-            minY = Math.min(minY, p.y);
-            maxY = Math.max(maxY, p.y);
-        }
-        return maxY - minY;
+        PointF[] p = orderQuad(poly);
+        return (distance(p[0], p[3]) + distance(p[1], p[2])) / 2;
     }
 
     /**
-     * RotatedBox 角度占位（如果需要可以改为真正旋转角度）
+     * RotatedBox 角度（弧度）：排列后上边的方向，顺时针为正（y 轴向下）
      */
     public static float getBoxAngle(PointF[] poly) {
-        return 0f; // 简化
+        PointF[] p = orderQuad(poly);
+        return (float) Math.atan2(p[1].y - p[0].y, p[1].x - p[0].x);
+    }
+
+    /**
+     * 四边形顶点按左上、右上、右下、左下排列（同 PaddleOCR get_mini_boxes）：
+     * 按 x 排序，左边两点中 y 小的为左上，右边两点中 y 小的为右上；不是四个点时取外接矩形
+     */
+    public static PointF[] orderQuad(PointF[] poly) {
+        if (poly == null || poly.length != 4) {
+            RectF r = poly == null ? new RectF() : boundsOf(poly);
+            return new PointF[]{new PointF(r.left, r.top), new PointF(r.right, r.top),
+                    new PointF(r.right, r.bottom), new PointF(r.left, r.bottom)};
+        }
+        PointF[] p = poly.clone();
+        Arrays.sort(p, new Comparator<PointF>() {
+            @Override
+            public int compare(PointF a, PointF b) {
+                return Float.compare(a.x, b.x);
+            }
+        });
+        PointF tl = p[0].y <= p[1].y ? p[0] : p[1];
+        PointF bl = p[0].y <= p[1].y ? p[1] : p[0];
+        PointF tr = p[2].y <= p[3].y ? p[2] : p[3];
+        PointF br = p[2].y <= p[3].y ? p[3] : p[2];
+        return new PointF[]{tl, tr, br, bl};
     }
 
     /**
@@ -254,6 +249,40 @@ public class OcrUtils {
         return data;
     }
 
+    /**
+     * det 输入尺寸：按 Det.LIMIT_TYPE / MAX_SIDE_LEN 等比缩放，宽高再对齐到 RESIZE_MULTIPLE；
+     * 当前请求处于降级档位时最长边再按 QualityTier.detMaxSide 限制
+     *
+     * @return {宽, 高}
+     */
+    public static int[] detInputSize(int w, int h) {
+        int m = Math.max(1, OcrConfig.Preprocess.RESIZE_MULTIPLE);
+        String type = OcrConfig.Det.LIMIT_TYPE;
+        int tierMax = QualityTier.current().detMaxSide;
+        int longSide = Math.max(w, h);
+        if ("none".equals(type) && (tierMax <= 0 || longSide <= tierMax)) {
+            return new int[]{((w + m - 1) / m) * m, ((h + m - 1) / m) * m};
+        }
+        int limit = OcrConfig.Det.MAX_SIDE_LEN;
+        int shortSide = Math.min(w, h);
+        float ratio = 1f;
+        if ("min".equals(type)) {
+            if (shortSide < limit) ratio = (float) limit / shortSide;
+        } else if (!"none".equals(type) && longSide > limit) {
+            ratio = (float) limit / longSide;
+        }
+        if (!"none".equals(type) && OcrConfig.Preprocess.DET_MAX_RESIZE > 0
+                && longSide * ratio > OcrConfig.Preprocess.DET_MAX_RESIZE) {
+            ratio = (float) OcrConfig.Preprocess.DET_MAX_RESIZE / longSide;
+        }
+        if (tierMax > 0 && longSide * ratio > tierMax) {
+            ratio = (float) tierMax / longSide;
+        }
+        int newW = Math.max(m, Math.round(w * ratio / m) * m);
+        int newH = Math.max(m, Math.round(h * ratio / m) * m);
+        return new int[]{newW, newH};
+    }
+
     public static Bitmap drawBoxesOnImage(Bitmap original, List<PointF[]> boxes, float scaleX, float scaleY) {
         if (original == null || boxes == null || boxes.isEmpty()) return original;
 
@@ -274,7 +303,7 @@ public class OcrUtils {
         return resultBitmap;
     }
 
-    private static float distance(PointF a, PointF b) {
+    static float distance(PointF a, PointF b) {
         float dx = a.x - b.x;
         float dy = a.y - b.y;
         return (float) Math.sqrt(dx * dx + dy * dy);
@@ -4,13 +4,12 @@ import android.content.Context;
 import android.graphics.Bitmap;
 import android.graphics.BitmapFactory;
 import android.graphics.Canvas;
-import android.graphics.Matrix;
 import android.graphics.PointF;
 import android.graphics.RectF;
 import android.util.Base64;
 import android.util.Log;
 
-import com.ocr.pponnx.ocr.det.RotatedBox;
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
 
 import java.io.BufferedReader;
 import java.io.IOException;
@@ -22,44 +21,90 @@ import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
+import ai.onnxruntime.NodeInfo;
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
 import ai.onnxruntime.OrtSession;
+import ai.onnxruntime.TensorInfo;
 
 public class OnnxOcrEngine {
 
     private static final String TAG = "OnnxOcrEngine";
+    private static final String DET_MODEL = "ch_PP-OCRv4_det_infer.onnx";
+    private static final String REC_MODEL = "ch_PP-OCRv4_rec_infer.onnx";
+    private static final String CLS_MODEL = "ch_ppocr_mobile_v2.0_cls_infer.onnx";
     private OrtEnvironment env;
     private OrtSession detSession, recSession, clsSession;
     private List<String> keys;
+    /** det 输出与输入同尺寸时直接写入复用的张量，加载模型时按元数据判断 */
+    private boolean detOutputPinned;
+    /** 非 null 时 runBitmap 走流水线 */
+    private volatile OcrPipeline pipeline;
+    /** 本引擎加载的模型档位，见 OcrOptions.PROFILE_* */
+    private String profile = OcrOptions.PROFILE_ACCURATE;
+    /** fast 档位的同伴引擎，与本引擎一起借出；未开启或没有可用的模型时为 null */
+    private OnnxOcrEngine fast;
 
     public OnnxOcrEngine(Context ctx) {
+        this(ctx, OcrConfig.Performance.INTRA_OP_THREADS, OcrConfig.Performance.INTER_OP_THREADS);
+    }
+
+    /**
+     * @param intraOpThreads 单个算子内部的并行线程数，0 为 ORT 默认（物理核数）
+     * @param interOpThreads 算子之间的并行线程数，>1 时开启并行执行模式；0 为 ORT 默认
+     */
+    public OnnxOcrEngine(Context ctx, int intraOpThreads, int interOpThreads) {
+        this(ctx, intraOpThreads, interOpThreads, OcrOptions.PROFILE_ACCURATE, null);
+        if (OcrConfig.Model.FAST_PROFILE && ModelStore.hasAnyAsset(ctx, OcrConfig.Model.FAST_DET_MODEL,
+                OcrConfig.Model.FAST_REC_MODEL, OcrConfig.Model.FAST_CLS_MODEL)) {
+            try {
+                fast = new OnnxOcrEngine(ctx, intraOpThreads, interOpThreads, OcrOptions.PROFILE_FAST, keys);
+            } catch (RuntimeException e) {
+                // fast 档位加载失败不影响主模型，请求退回 accurate
+                Log.e(TAG, "fast 档位初始化失败", e);
+            }
+        }
+    }
+
+    /**
+     * @param profile 加载哪一档模型；fast 档位缺少的模型用 FP32 版本
+     * @param keys    与主引擎共用的字符集，为 null 时从 assets 加载
+     */
+    private OnnxOcrEngine(Context ctx, int intraOpThreads, int interOpThreads, String profile, List<String> keys) {
         try {
+            this.profile = profile;
+            boolean isFast = OcrOptions.PROFILE_FAST.equals(profile);
             // 输出配置信息
-            OcrConfig.logAllConfig();
+            if (!isFast) {
+                OcrConfig.logAllConfig();
+            }
 
-            Log.i(TAG, "初始化ONNX OCR引擎...");
+            Log.i(TAG, "初始化ONNX OCR引擎... profile=" + profile
+                    + " intraOp=" + intraOpThreads + " interOp=" + interOpThreads);
 
             // 初始化环境
             env = OrtEnvironment.getEnvironment();
 
-            // 根据性能配置设置会话选项
-            OrtSession.SessionOptions options = new OrtSession.SessionOptions();
-            if (OcrConfig.Performance.MAX_CONCURRENT > 1) {
-                options.setInterOpNumThreads(OcrConfig.Performance.MAX_CONCURRENT);
-                options.setIntraOpNumThreads(OcrConfig.Performance.MAX_CONCURRENT);
-            }
-
-            // 加载模型
+            // 加载模型（解压到本地后按路径加载，各模型按配置选择执行后端）
+            ModelStore store = new ModelStore(ctx);
+            SessionFactory sessions = new SessionFactory(env, store, intraOpThreads, interOpThreads);
+            String suffix = isFast ? "-fast" : "";
             Log.i(TAG, "加载检测模型...");
-            detSession = env.createSession(load(ctx, "ch_PP-OCRv4_det_infer.onnx"), options);
+            detSession = sessions.create(store.get(modelName(ctx, DET_MODEL, OcrConfig.Model.FAST_DET_MODEL, isFast)),
+                    "det" + suffix, OcrConfig.Model.DET_PROVIDER, new long[]{1, 3, 640, 640});
+            detOutputPinned = outputMatchesInput(detSession);
+            Log.i(TAG, "det 输出" + (detOutputPinned ? "写入复用张量" : "与输入尺寸不同，由 ORT 分配"));
 
             Log.i(TAG, "加载识别模型...");
-            recSession = env.createSession(load(ctx, "ch_PP-OCRv4_rec_infer.onnx"), options);
+            recSession = sessions.create(store.get(modelName(ctx, REC_MODEL, OcrConfig.Model.FAST_REC_MODEL, isFast)),
+                    "rec" + suffix, OcrConfig.Model.REC_PROVIDER,
+                    new long[]{1, 3, RecPostProcess.MODEL_HEIGHT, OcrConfig.Rec.MAX_WIDTH});
 
             if (OcrConfig.Det.DO_ANGLE) {
                 Log.i(TAG, "加载分类模型...");
-                clsSession = env.createSession(load(ctx, "ch_ppocr_mobile_v2.0_cls_infer.onnx"), options);
+                clsSession = sessions.create(store.get(modelName(ctx, CLS_MODEL, OcrConfig.Model.FAST_CLS_MODEL, isFast)),
+                        "cls" + suffix, OcrConfig.Model.CLS_PROVIDER, new long[]{1, 3, 48, 192});
             } else {
                 Log.i(TAG, "跳过分类模型（配置禁用）");
                 clsSession = null;
@@ -67,9 +112,9 @@ public class OnnxOcrEngine {
 
             // 加载字符集
             Log.i(TAG, "加载字符集...");
-            keys = loadKeys(ctx);
+            this.keys = keys != null ? keys : loadKeys(ctx);
 
-            Log.i(TAG, "字符集大小: " + keys.size());
+            Log.i(TAG, "字符集大小: " + this.keys.size());
             Log.i(TAG, "ONNX OCR引擎初始化完成");
 
         } catch (Exception e) {
@@ -79,160 +124,496 @@ public class OnnxOcrEngine {
     }
 
     public List<OcrResult> runBase64(String base64) throws Exception {
-        // 1. 解码 base64
+        return runBase64(base64, null);
+    }
+
+    /**
+     * @param listener 每条结果识别出来立即回调（流式输出），可为 null
+     */
+    public List<OcrResult> runBase64(String base64, OcrResultListener listener) throws Exception {
+        // 1. 解码 base64，大图走降采样解码
+        return runBytes(decodeBase64(base64), new OcrOptions(), listener);
+    }
+
+    public static byte[] decodeBase64(String base64) {
+        long t = System.nanoTime();
         byte[] imgBytes = Base64.decode(base64, Base64.DEFAULT);
-        Bitmap originalBitmap = BitmapFactory.decodeByteArray(imgBytes, 0, imgBytes.length);
-        if (originalBitmap == null) throw new Exception("Failed to decode base64");
+        OcrMetrics.record(OcrMetrics.Stage.BASE64_DECODE, t);
+        return imgBytes;
+    }
 
-        int w = originalBitmap.getWidth();
-        int h = originalBitmap.getHeight();
-        int newW = ((w + 31) / 32) * 32;
-        int newH = ((h + 31) / 32) * 32;
+    /**
+     * 图片文件原始字节（png/jpg 等）
+     */
+    public List<OcrResult> runBytes(byte[] imgBytes, OcrResultListener listener) throws Exception {
+        return runBytes(imgBytes, new OcrOptions(), listener);
+    }
 
-        Bitmap resizedBitmap = originalBitmap;
-        if (newW != w || newH != h) {
-            resizedBitmap = Bitmap.createScaledBitmap(originalBitmap, newW, newH, true);
+    /**
+     * 大图先按 det 分辨率降采样解码检测，再只按原分辨率解码文本所在的区域，见 SampledDecoder
+     */
+    public List<OcrResult> runBytes(byte[] imgBytes, OcrOptions options, OcrResultListener listener) throws Exception {
+        OnnxOcrEngine target = forProfile(options.profile);
+        if (target != this) {
+            return target.runBytes(imgBytes, options, listener);
         }
+        SampledDecoder sampled = pipeline == null && !options.hasRegions() ? SampledDecoder.open(imgBytes) : null;
+        if (sampled == null) {
+            Bitmap bitmap = decodeBitmap(imgBytes);
+            try {
+                return runBitmap(bitmap, options, listener);
+            } finally {
+                BitmapPool.release(bitmap);
+            }
+        }
+        OcrDeadline prev = OcrDeadline.bind(options.deadline);
+        QualityTier prevTier = QualityTier.bind(options.tier);
+        try {
+            if (options.deadline.exceeded()) {
+                return new ArrayList<>();
+            }
+            return sampled.run(this, listener);
+        } finally {
+            OcrDeadline.bind(prev);
+            QualityTier.bind(prevTier);
+        }
+    }
 
-        // 2. 转 float tensor
-        float[] inputData = OcrUtils.bitmapToFloatTensor(resizedBitmap);
-        long[] shape = new long[]{1, 3, newH, newW}; // NCHW
-        OnnxTensor inputTensor = OnnxTensor.createTensor(env, FloatBuffer.wrap(inputData), shape);
+    /**
+     * @throws Exception 不是可解码的图片
+     */
+    public static Bitmap decodeBitmap(byte[] imgBytes) throws Exception {
+        long t = System.nanoTime();
+        Bitmap bitmap = BitmapPool.decode(imgBytes);
+        OcrMetrics.record(OcrMetrics.Stage.BITMAP_DECODE, t);
+        if (bitmap == null) throw new Exception("Failed to decode image");
+        return bitmap;
+    }
 
-        // 3. 执行 det 模型
-        Map<String, OnnxTensor> inputs = Collections.singletonMap(detSession.getInputNames().iterator().next(), inputTensor);
-        OrtSession.Result run = detSession.run(inputs);
-        float[][][][] output4D = (float[][][][]) run.get(0).getValue(); // 正确类型
-        int H = output4D[0][0].length;
-        int W = output4D[0][0][0].length;
-
-        // 4. 获取输出，假设 det 输出为 float[][][]
-        float[][][] detOutput = new float[H][W][1];
-        for (int y = 0; y < H; y++) {
-            for (int x = 0; x < W; x++) {
-                detOutput[y][x][0] = output4D[0][0][y][x];
+    /**
+     * 直接从输入流解码（application/octet-stream、multipart 上传），不经过 base64 和整块 byte[]
+     */
+    public List<OcrResult> runStream(InputStream in) throws Exception {
+        return runStream(in, null);
+    }
+
+    public List<OcrResult> runStream(InputStream in, OcrResultListener listener) throws Exception {
+        return runStream(in, new OcrOptions(), listener);
+    }
+
+    public List<OcrResult> runStream(InputStream in, OcrOptions options, OcrResultListener listener) throws Exception {
+        long t = System.nanoTime();
+        Bitmap originalBitmap = BitmapFactory.decodeStream(in);
+        OcrMetrics.record(OcrMetrics.Stage.BITMAP_DECODE, t);
+        if (originalBitmap == null) throw new Exception("Failed to decode image stream");
+        try {
+            return runBitmap(originalBitmap, options, listener);
+        } finally {
+            BitmapPool.release(originalBitmap);
+        }
+    }
+
+    public List<OcrResult> runBitmap(Bitmap originalBitmap) throws Exception {
+        return runBitmap(originalBitmap, null);
+    }
+
+    public List<OcrResult> runBitmap(Bitmap originalBitmap, OcrResultListener listener) throws Exception {
+        return runBitmap(originalBitmap, new OcrOptions(), listener);
+    }
+
+    public List<OcrResult> runBitmap(Bitmap originalBitmap, OcrOptions options,
+                                     OcrResultListener listener) throws Exception {
+        OnnxOcrEngine target = forProfile(options.profile);
+        if (target != this) {
+            return target.runBitmap(originalBitmap, options, listener);
+        }
+        OcrPipeline p = pipeline;
+        if (p != null) {
+            return p.run(originalBitmap, options, listener);
+        }
+        OcrDeadline prev = OcrDeadline.bind(options.deadline);
+        QualityTier prevTier = QualityTier.bind(options.tier);
+        try {
+            if (options.deadline.exceeded()) {
+                // 排队时已经超时
+                return new ArrayList<>();
             }
+            List<PointF[]> boxes = detectBoxes(originalBitmap, options);
+            return recognize(originalBitmap, boxes, listener);
+        } finally {
+            OcrDeadline.bind(prev);
+            QualityTier.bind(prevTier);
         }
+    }
 
+    /**
+     * 开启流水线：之后 runBitmap 交给 det / 裁剪+cls / rec 三个阶段线程执行，
+     * 多个调用线程同时提交时各阶段的会话可以同时工作
+     *
+     * @param queueCapacity 阶段之间的交接队列长度
+     */
+    public synchronized void enablePipeline(int queueCapacity) {
+        if (pipeline == null) {
+            pipeline = new OcrPipeline(this, queueCapacity);
+        }
+        if (fast != null) {
+            fast.enablePipeline(queueCapacity);
+        }
+    }
 
-        // 5. 后处理得到 polygon
-        List<PointF[]> boxes = DetPostProcess.run(detOutput);
+    /**
+     * 请求档位对应的引擎：fast 且已加载时为同伴引擎，否则为本引擎
+     */
+    public OnnxOcrEngine forProfile(String profile) {
+        if (OcrOptions.PROFILE_FAST.equals(profile) && fast != null) {
+            return fast;
+        }
+        return this;
+    }
 
-        // 6. 映射回原图
-//        float scaleX = (float) w / newW;
-//        float scaleY = (float) h / newH;
-//        Bitmap bitmapWithBoxes = OcrUtils.drawBoxesOnImage(originalBitmap, boxes, scaleX, scaleY);
+    /**
+     * 本引擎加载的模型档位
+     */
+    public String profile() {
+        return profile;
+    }
 
-        List<OcrResult> results = new ArrayList<>();
-        for (PointF[] poly : boxes) {
-            //todo 计算坐标返回 deepseek
+    /**
+     * @return 未开启时为 null
+     */
+    public OcrPipeline pipeline() {
+        return pipeline;
+    }
 
-            // 5a. 可选裁剪 RotatedBox
-            RotatedBox box = new RotatedBox(
-                    OcrUtils.getBoxCenter(poly),
-                    OcrUtils.getBoxWidth(poly),
-                    OcrUtils.getBoxHeight(poly),
-                    OcrUtils.getBoxAngle(poly)
-            );
-            Bitmap crop = OcrUtils.cropRotatedBox(resizedBitmap, box);
+    /**
+     * 待识别的文本框：没有指定区域时整图检测；否则见 OcrOptions.regions / regionDet
+     */
+    public List<PointF[]> detectBoxes(Bitmap src, OcrOptions options) throws Exception {
+        if (!options.hasRegions()) {
+            return detect(src);
+        }
+        List<PointF[]> boxes = new ArrayList<>();
+        boolean regionDet = options.regionDet;
+        for (PointF[] region : options.regions) {
+            RectF r = OcrUtils.boundsOf(region);
+            int x = Math.max(0, (int) Math.floor(r.left));
+            int y = Math.max(0, (int) Math.floor(r.top));
+            int right = Math.min(src.getWidth(), (int) Math.ceil(r.right));
+            int bottom = Math.min(src.getHeight(), (int) Math.ceil(r.bottom));
+            // 完全落在图外
+            if (right - x < 1 || bottom - y < 1) continue;
+            if (regionDet && OcrDeadline.current().exceeded()) break;
+            if (!regionDet) {
+                boxes.add(region);
+                continue;
+            }
+            // 直接检测源图上的区域，不拷贝成小图
+            boxes.addAll(detect(src, x, y, right - x, bottom - y));
+        }
+        return boxes;
+    }
 
-            if (OcrConfig.Det.DO_ANGLE) {
-                // 5b. 执行 Cls（可选）
-                // 2. resize 到 cls 模型输入尺寸
-                // Paddle 官方 cls 输入是：48 x 192（HxW）
-                int clsH = 48;
-                int clsW = 192;
-                Bitmap resizedCls = Bitmap.createScaledBitmap(
-                        crop,
-                        clsW,
-                        clsH,
-                        true
-                );
-                // 3. Bitmap → float[]（NCHW，RGB，归一化到 [0,1]）
-                float[] clsInputData = new float[3 * clsH * clsW];
-                int[] pixels = new int[clsH * clsW];
-                resizedCls.getPixels(pixels, 0, clsW, 0, 0, clsW, clsH);
-
-                for (int y = 0; y < clsH; y++) {
-                    for (int x = 0; x < clsW; x++) {
-                        int c = pixels[y * clsW + x];
-                        float r = ((c >> 16) & 0xFF) / 255f;
-                        float g = ((c >> 8) & 0xFF) / 255f;
-                        float b = (c & 0xFF) / 255f;
-
-                        int idx = y * clsW + x;
-                        clsInputData[idx] = r;
-                        clsInputData[clsH * clsW + idx] = g;
-                        clsInputData[2 * clsH * clsW + idx] = b;
-                    }
-                }
+    /**
+     * det：整图检测文本框
+     *
+     * @return 输入图坐标系下的四边形
+     */
+    public List<PointF[]> detect(Bitmap originalBitmap) throws Exception {
+        return detect(originalBitmap, 0, 0, originalBitmap.getWidth(), originalBitmap.getHeight());
+    }
 
-                // 4. 创建 OnnxTensor（注意是 4 维）
-                long[] clsShape = new long[]{1, 3, clsH, clsW};
-                OnnxTensor clsTensor = OnnxTensor.createTensor(
-                        env,
-                        FloatBuffer.wrap(clsInputData),
-                        clsShape
-                );
-
-                // 5. 执行 cls
-                String clsInputName = clsSession.getInputNames().iterator().next();
-                OrtSession.Result clsRun = clsSession.run(
-                        Collections.singletonMap(clsInputName, clsTensor)
-                );
-
-                // 6. 取输出（shape = [1, 2]）
-                float[][] clsOutput = (float[][]) clsRun.get(0).getValue();
-
-                // 7. 后处理：判断方向
-                ClsPostProcess.TextDirection dir =
-                        ClsPostProcess.getDirection(clsOutput);
-
-                // 8. 如果是 180°，旋转 crop
-                if (dir == ClsPostProcess.TextDirection.ROTATE_180) {
-                    crop = rotateBitmap(crop, ClsPostProcess.TextDirection.ROTATE_180);
+    /**
+     * det：检测 src 中 (left, top) 起 w x h 的区域，直接从源图读像素
+     *
+     * @return src 坐标系下的四边形
+     */
+    List<PointF[]> detect(Bitmap src, int left, int top, int w, int h) throws Exception {
+        if (TiledDetector.shouldTile(w, h)) {
+            return TiledDetector.detect(this, src, left, top, w, h);
+        }
+        // 按 Det.LIMIT_TYPE 限制分辨率，缩放在写入张量时完成，框在后面按实际缩放比映射回原图
+        int[] size = OcrUtils.detInputSize(w, h);
+        int newW = size[0];
+        int newH = size[1];
+
+        List<PointF[]> boxes = runDet(new BitmapPixels(src, left, top, w, h), newW, newH, newW, newH);
+
+        // 6. 映射回原图（宽高各自的缩放比，对齐取整后两者略有不同）
+        float scaleX = (float) w / newW;
+        float scaleY = (float) h / newH;
+        for (PointF[] poly : boxes) {
+            for (PointF p : poly) {
+                p.set(left + p.x * scaleX, top + p.y * scaleY);
+            }
+        }
+        OcrMetrics.recordBoxes(boxes.size());
+        return boxes;
+    }
+
+    /**
+     * det 模型 + 后处理，input 缩放到 inputW x inputH 后画在 tensorW x tensorH 输入张量的左上角，其余补 0
+     *
+     * @return 输入张量坐标系下的四边形
+     */
+    List<PointF[]> runDet(ResizeNormalize.PixelSource input, int inputW, int inputH,
+                          int tensorW, int tensorH) throws Exception {
+        // 2. 缩放+归一化一遍写入线程复用的输入张量（direct buffer，ORT 不再拷贝）
+        long t = System.nanoTime();
+        TensorArena arena = TensorArena.get();
+        long[] shape = new long[]{1, 3, tensorH, tensorW}; // NCHW
+        FloatBuffer buffer = arena.buffer(env, "det_in", shape);
+        int threads = OcrConfig.Preprocess.THREADS > 0
+                ? OcrConfig.Preprocess.THREADS : Runtime.getRuntime().availableProcessors();
+        ResizeNormalize.run(input, inputW, inputH, buffer, tensorW, tensorH, detNorm(), threads,
+                OcrConfig.Preprocess.PARALLEL_MIN_PIXELS);
+        OnnxTensor inputTensor = arena.tensor(env, "det_in", shape);
+        OcrMetrics.record(OcrMetrics.Stage.TENSOR_BUILD, t);
+
+        // 3. 执行 det 模型，输出 [1,1,H,W] 直接写进复用的输出张量；请求到期时 ORT 中止 run
+        t = System.nanoTime();
+        Map<String, OnnxTensor> inputs = Collections.singletonMap(detSession.getInputNames().iterator().next(), inputTensor);
+        OcrDeadline deadline = OcrDeadline.current();
+        OrtSession.RunOptions runOptions = deadline.begin();
+        FloatBuffer prob;
+        int H = tensorH;
+        int W = tensorW;
+        try {
+            if (detOutputPinned) {
+                long[] outShape = new long[]{1, 1, tensorH, tensorW};
+                OnnxTensor outputTensor = arena.tensor(env, "det_out", outShape);
+                detSession.run(inputs, Collections.<String>emptySet(), Collections.singletonMap(
+                        detSession.getOutputNames().iterator().next(), outputTensor), runOptions).close();
+                prob = arena.buffer(env, "det_out", outShape);
+            } else {
+                OrtSession.Result run = detSession.run(inputs, runOptions);
+                OnnxTensor output = (OnnxTensor) run.get(0);
+                long[] outShape = output.getInfo().getShape();
+                H = (int) outShape[2];
+                W = (int) outShape[3];
+                prob = output.getFloatBuffer();
+                run.close();
+            }
+        } catch (OrtException e) {
+            if (deadline.aborted(e)) return new ArrayList<>();
+            throw e;
+        } finally {
+            deadline.end(runOptions);
+        }
+        OcrMetrics.record(OcrMetrics.Stage.DET_RUN, t);
+
+        // 4. 后处理得到 polygon（直接读输出 buffer）
+        t = System.nanoTime();
+        List<PointF[]> boxes = DetPostProcess.run(prob, H, W);
+        if (H != tensorH || W != tensorW) {
+            float scaleX = (float) tensorW / W;
+            float scaleY = (float) tensorH / H;
+            for (PointF[] poly : boxes) {
+                for (PointF p : poly) {
+                    p.set(p.x * scaleX, p.y * scaleY);
                 }
+            }
+        }
+        OcrMetrics.record(OcrMetrics.Stage.DET_POST, t);
+        return boxes;
+    }
+
+    /**
+     * 裁剪 → cls（可选）→ 批量 rec → 分数过滤
+     *
+     * @param boxes src 坐标系下的四边形
+     */
+    public List<OcrResult> recognize(Bitmap src, List<PointF[]> boxes,
+                                     OcrResultListener listener) throws Exception {
+        return recognizeCrops(cropLines(src, boxes), boxes, listener);
+    }
 
-                clsTensor.close();
-                clsRun.close();
+    /**
+     * 按文本框取出待识别的行（不生成裁剪图，见 TextLine），开启 DO_ANGLE 时把倒置的行转正（降级档位可跳过）
+     * 返回的行引用 src，识别完成前 src 不能释放
+     */
+    public List<TextLine> cropLines(Bitmap src, List<PointF[]> boxes) throws Exception {
+        List<TextLine> crops = new ArrayList<>(boxes.size());
+        OcrDeadline deadline = OcrDeadline.current();
+        QualityTier tier = QualityTier.current();
+        for (PointF[] poly : boxes) {
+            // 到期后剩下的框不再裁剪/识别，recognizeCrops 只处理前 crops.size() 个框
+            if (deadline.exceeded()) break;
+            long t = System.nanoTime();
+            TextLine crop = TextLine.warp(src, poly);
+            OcrMetrics.record(OcrMetrics.Stage.CROP, t);
+
+            if (tier.useCls()) {
+                crop = classify(crop);
             }
-            //rec
-            OcrResult ocrResult = RecPostProcess.runRec(recSession, env, crop, keys);
+            crops.add(crop);
+        }
+        return crops;
+    }
 
+    /**
+     * 批量 rec → 分数过滤，结果带 boxes 对应的位置
+     */
+    public List<OcrResult> recognizeCrops(List<TextLine> crops, List<PointF[]> boxes,
+                                          final OcrResultListener listener) throws Exception {
+        // 7. 批量 rec，每批出结果即回调（已过滤低分）
+        final List<PointF[]> polys = boxes;
+        OcrResultListener recListener = null;
+        if (listener != null) {
+            recListener = new OcrResultListener() {
+                @Override
+                public void onResult(int index, OcrResult result) throws Exception {
+                    if (result.score >= OcrConfig.Rec.REC_SCORE_THRESHOLD) {
+                        setPosition(result, polys.get(index));
+                        listener.onResult(index, result);
+                    }
+                }
+            };
+        }
+        List<OcrResult> recResults;
+        try {
+            recResults = RecPostProcess.runRecBatch(recSession, env, crops, keys, recListener);
+        } finally {
+            // detach() 过的行持有自己的小图
+            for (TextLine crop : crops) {
+                crop.release();
+            }
+        }
+
+        List<OcrResult> results = new ArrayList<>();
+        for (int i = 0; i < recResults.size(); i++) {
+            OcrResult ocrResult = recResults.get(i);
             // 过滤 score
             if (ocrResult.score < OcrConfig.Rec.REC_SCORE_THRESHOLD) {
+                OcrMetrics.inc(OcrMetrics.Counter.CROPS_FILTERED);
                 continue;
             }
+            setPosition(ocrResult, boxes.get(i));
             results.add(ocrResult);
         }
-        Log.d(TAG, "runBase64: " + results);
+        Log.d(TAG, "recognize: " + results);
         return results;
     }
 
+    /**
+     * 只跑 rec：输入为已裁好的单行图片（/rec 接口），不做 cls 和分数过滤
+     *
+     * @return 与 lines 顺序一致，无位置信息
+     */
+    public List<OcrResult> recognizeLines(List<Bitmap> lines) throws Exception {
+        List<TextLine> crops = new ArrayList<>(lines.size());
+        for (Bitmap line : lines) {
+            crops.add(line == null ? null : TextLine.of(line));
+        }
+        return RecPostProcess.runRecBatch(recSession, env, crops, keys);
+    }
+
+    /**
+     * cls：判断文字方向，180° 的行转正
+     */
+    private TextLine classify(TextLine crop) throws Exception {
+        long t = System.nanoTime();
+        // 2. 拉正缩放到 cls 模型输入尺寸
+        // Paddle 官方 cls 输入是：48 x 192（HxW）
+        int clsH = 48;
+        int clsW = 192;
+        // 同 PaddleOCR cls：按高度等比缩放，宽度不超过 clsW，不拉伸短行
+        int w = Math.max(1, Math.min(clsW, (int) Math.ceil((double) clsH * crop.width / Math.max(crop.height, 1))));
+        // 3. 直接采样进复用的输入张量（NCHW，RGB，归一化到 [0,1]），左对齐，右侧补 0
+        TensorArena arena = TensorArena.get();
+        long[] clsShape = new long[]{1, 3, clsH, clsW};
+        int plane = clsH * clsW;
+        FloatBuffer clsInput = arena.buffer(env, "cls_in", clsShape);
+        crop.sample(clsInput, 0, clsW, plane, w, clsH, RecPostProcess.NORM);
+        // buffer 里是上一次的数据，padding 显式清零
+        for (int c = 0; c < 3; c++) {
+            for (int y = 0; y < clsH; y++) {
+                int row = c * plane + y * clsW;
+                for (int x = w; x < clsW; x++) {
+                    clsInput.put(row + x, 0f);
+                }
+            }
+        }
+
+        // 4. 输入张量（注意是 4 维），属于 arena，不 close
+        OnnxTensor clsTensor = arena.tensor(env, "cls_in", clsShape);
 
-    // --------------------------------------
-    // Bitmap 旋转
-    // --------------------------------------
-    private Bitmap rotateBitmap(Bitmap bmp, ClsPostProcess.TextDirection dir) {
-        Matrix matrix = new Matrix();
-        if (dir == ClsPostProcess.TextDirection.ROTATE_180) {
-            matrix.postRotate(180);
-        } else if (dir == ClsPostProcess.TextDirection.HORIZONTAL) {
-            matrix.postRotate(0);
+        // 5. 执行 cls
+        String clsInputName = clsSession.getInputNames().iterator().next();
+        OcrDeadline deadline = OcrDeadline.current();
+        OrtSession.RunOptions runOptions = deadline.begin();
+        OrtSession.Result clsRun;
+        try {
+            clsRun = clsSession.run(Collections.singletonMap(clsInputName, clsTensor), runOptions);
+        } catch (OrtException e) {
+            // 到期中止时不判断方向，原样交给 rec
+            if (deadline.aborted(e)) return crop;
+            throw e;
+        } finally {
+            deadline.end(runOptions);
         }
-        return Bitmap.createBitmap(bmp, 0, 0, bmp.getWidth(), bmp.getHeight(), matrix, true);
+
+        try {
+            // 6. 取输出（shape = [1, 2]）
+            float[][] clsOutput = (float[][]) clsRun.get(0).getValue();
+
+            // 7. 后处理：判断方向
+            ClsPostProcess.TextDirection dir =
+                    ClsPostProcess.getDirection(clsOutput);
+
+            // 8. 如果是 180°，调换顶点顺序即可
+            if (dir == ClsPostProcess.TextDirection.ROTATE_180) {
+                crop = crop.flip();
+            }
+        } finally {
+            clsRun.close();
+        }
+        OcrMetrics.record(OcrMetrics.Stage.CLS, t);
+        return crop;
+    }
+
+    /**
+     * 模型输出是否为 [N,1,H,W] 且 H、W 与输入相同（同为动态维度或相同的固定值）
+     */
+    private static boolean outputMatchesInput(OrtSession session) throws OrtException {
+        NodeInfo in = session.getInputInfo().values().iterator().next();
+        NodeInfo out = session.getOutputInfo().values().iterator().next();
+        if (!(in.getInfo() instanceof TensorInfo) || !(out.getInfo() instanceof TensorInfo)) return false;
+        long[] inShape = ((TensorInfo) in.getInfo()).getShape();
+        long[] outShape = ((TensorInfo) out.getInfo()).getShape();
+        return inShape.length == 4 && outShape.length == 4 && outShape[1] == 1
+                && outShape[2] == inShape[2] && outShape[3] == inShape[3];
+    }
+
+    /**
+     * det 输入的归一化参数，见 OcrConfig.Preprocess
+     */
+    private static ResizeNormalize.Norm detNorm() {
+        return ResizeNormalize.Norm.of(OcrConfig.Preprocess.DET_CHANNEL_ORDER,
+                new float[]{OcrConfig.Preprocess.MEAN_R, OcrConfig.Preprocess.MEAN_G, OcrConfig.Preprocess.MEAN_B},
+                new float[]{OcrConfig.Preprocess.STD_R, OcrConfig.Preprocess.STD_G, OcrConfig.Preprocess.STD_B});
     }
 
+    /**
+     * 文本框外接矩形写入结果
+     */
+    private static void setPosition(OcrResult result, PointF[] poly) {
+        RectF r = OcrUtils.boundsOf(poly);
+        result.x = Math.round(r.left);
+        result.y = Math.round(r.top);
+        result.width = Math.round(r.width());
+        result.height = Math.round(r.height());
+    }
+
+
 
     /**
-     * 加载模型文件
+     * fast 档位优先用量化/FP16 模型，assets 中没有时用 FP32 版本
      */
-    private byte[] load(Context ctx, String name) throws IOException {
-        InputStream is = ctx.getAssets().open(name);
-        byte[] buf = new byte[is.available()];
-        is.read(buf);
-        is.close();
-        return buf;
+    private static String modelName(Context ctx, String fp32, String fastName, boolean isFast) {
+        if (!isFast) return fp32;
+        if (ModelStore.hasAnyAsset(ctx, fastName)) return fastName;
+        Log.w(TAG, "assets 中没有 " + fastName + "，fast 档位使用 " + fp32);
+        return fp32;
     }
 
     /**
@@ -249,16 +630,81 @@ public class OnnxOcrEngine {
         return list;
     }
 
+    /**
+     * 用合成图跑一遍常见的输入 shape：det 按 Warmup.DET_SIZES（开启降级时每个降级档位的分辨率也跑一遍），
+     * rec 按每个宽度档位和 Warmup.REC_BATCHES，开启 cls 时再跑一次 cls
+     *
+     * @return 耗时（毫秒）
+     */
+    public long warmUp() throws Exception {
+        long t = System.currentTimeMillis();
+        int tiers = OcrConfig.Degrade.ENABLED ? QualityTier.count() : 1;
+        for (int level = 0; level < tiers; level++) {
+            QualityTier tier = QualityTier.of(level);
+            if (level > 0 && tier.detMaxSide <= 0) continue;
+            QualityTier prev = QualityTier.bind(tier);
+            try {
+                for (int[] size : OcrConfig.Warmup.DET_SIZES) {
+                    Bitmap blank = Bitmap.createBitmap(size[0], size[1], Bitmap.Config.ARGB_8888);
+                    detect(blank);
+                    blank.recycle();
+                }
+            } finally {
+                QualityTier.bind(prev);
+            }
+        }
+        if (OcrConfig.Det.TILED) {
+            int tile = TiledDetector.tileSize();
+            Bitmap blank = Bitmap.createBitmap(tile, tile, Bitmap.Config.ARGB_8888);
+            runDet(new BitmapPixels(blank), tile, tile, tile, tile);
+            blank.recycle();
+        }
+        int step = Math.max(1, OcrConfig.Rec.PAD_MULTIPLE);
+        for (int w = 32; ; w += step) {
+            int bucket = RecPostProcess.bucketWidth(Math.min(w, OcrConfig.Rec.MAX_WIDTH));
+            Bitmap line = Bitmap.createBitmap(bucket, RecPostProcess.MODEL_HEIGHT, Bitmap.Config.ARGB_8888);
+            for (int batch : OcrConfig.Warmup.REC_BATCHES) {
+                List<Bitmap> lines = new ArrayList<>();
+                for (int i = 0; i < Math.max(1, batch); i++) {
+                    lines.add(line);
+                }
+                recognizeLines(lines);
+            }
+            line.recycle();
+            if (w >= OcrConfig.Rec.MAX_WIDTH) break;
+        }
+        if (clsSession != null) {
+            Bitmap line = Bitmap.createBitmap(192, 48, Bitmap.Config.ARGB_8888);
+            classify(TextLine.of(line));
+            line.recycle();
+        }
+        if (fast != null) {
+            fast.warmUp();
+        }
+        long ms = System.currentTimeMillis() - t;
+        Log.i(TAG, "预热完成，耗时: " + ms + "ms");
+        return ms;
+    }
+
     /**
      * 释放资源
      */
     public void release() {
         try {
+            if (pipeline != null) {
+                pipeline.shutdown();
+                pipeline = null;
+            }
+            if (fast != null) {
+                fast.release();
+                fast = null;
+            }
             if (detSession != null) {
                 detSession.close();
                 detSession = null;
             }
             if (recSession != null) {
+                RecPostProcess.forget(recSession);
                 recSession.close();
                 recSession = null;
             }
@@ -266,10 +712,8 @@ public class OnnxOcrEngine {
                 clsSession.close();
                 clsSession = null;
             }
-            if (env != null) {
-                env.close();
-                env = null;
-            }
+            // env 是进程内单例，多个引擎共用，不在这里关闭
+            env = null;
             Log.i(TAG, "OCR引擎资源已释放");
         } catch (Exception e) {
             Log.e(TAG, "释放资源失败", e);
@@ -0,0 +1,86 @@
+package com.ocr.pponnx.ocr;
+
+/**
+ * 负载降级档位
+ * <pre>
+ *     0 为正常质量；档位越高越便宜：det 分辨率更低、跳过 cls、rec 宽度上限更小，
+ *     各档参数见 OcrConfig.Degrade，由服务端按负载选择后放进 OcrOptions.tier
+ *
+ *     引擎内部通过 current() 取当前线程正在处理的请求的档位，与 OcrDeadline 一样由 runBitmap 和流水线各阶段 bind
+ * </pre>
+ */
+public class QualityTier {
+
+    /** 正常质量，全部按 OcrConfig */
+    public static final QualityTier FULL = new QualityTier(0, 0, false, 0);
+
+    private static final ThreadLocal<QualityTier> CURRENT = new ThreadLocal<QualityTier>() {
+        @Override
+        protected QualityTier initialValue() {
+            return FULL;
+        }
+    };
+
+    public final int level;
+    /** det 输入最长边上限，0 为不额外限制 */
+    public final int detMaxSide;
+    /** 即使开启 Det.DO_ANGLE 也不跑 cls */
+    public final boolean skipCls;
+    /** rec 输入宽度上限，0 为 Rec.MAX_WIDTH */
+    public final int recMaxWidth;
+
+    public QualityTier(int level, int detMaxSide, boolean skipCls, int recMaxWidth) {
+        this.level = level;
+        this.detMaxSide = detMaxSide;
+        this.skipCls = skipCls;
+        this.recMaxWidth = recMaxWidth;
+    }
+
+    /**
+     * OcrConfig.Degrade 中第 level 档，超出范围取最近的一档
+     */
+    public static QualityTier of(int level) {
+        int n = OcrConfig.Degrade.DET_MAX_SIDE.length;
+        if (level <= 0 || n == 0) return FULL;
+        int i = Math.min(level, n - 1);
+        return new QualityTier(i, OcrConfig.Degrade.DET_MAX_SIDE[i],
+                i < OcrConfig.Degrade.SKIP_CLS.length && OcrConfig.Degrade.SKIP_CLS[i],
+                i < OcrConfig.Degrade.REC_MAX_WIDTH.length ? OcrConfig.Degrade.REC_MAX_WIDTH[i] : 0);
+    }
+
+    /**
+     * 配置的档位数（含 0 档）
+     */
+    public static int count() {
+        return Math.max(1, OcrConfig.Degrade.DET_MAX_SIDE.length);
+    }
+
+    public static QualityTier current() {
+        return CURRENT.get();
+    }
+
+    /**
+     * 设置当前线程正在处理的请求的档位
+     *
+     * @return 之前绑定的，处理完后再 bind 回去
+     */
+    public static QualityTier bind(QualityTier tier) {
+        QualityTier prev = CURRENT.get();
+        CURRENT.set(tier == null ? FULL : tier);
+        return prev;
+    }
+
+    /**
+     * 本档是否跑 cls
+     */
+    public boolean useCls() {
+        return OcrConfig.Det.DO_ANGLE && !skipCls;
+    }
+
+    /**
+     * 本档的 rec 宽度上限
+     */
+    public int recMaxWidth() {
+        return recMaxWidth > 0 ? Math.min(recMaxWidth, OcrConfig.Rec.MAX_WIDTH) : OcrConfig.Rec.MAX_WIDTH;
+    }
+}
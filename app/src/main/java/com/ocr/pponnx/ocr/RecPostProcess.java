@@ -1,12 +1,18 @@
 package com.ocr.pponnx.ocr;
 
-import android.graphics.Bitmap;
 import android.util.Log;
 
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
 import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import ai.onnxruntime.OnnxTensor;
 import ai.onnxruntime.OrtEnvironment;
@@ -17,101 +23,232 @@ public class RecPostProcess {
 
     public static final int MODEL_HEIGHT = 64;
 
-    public static OcrResult runRec(OrtSession recSession, OrtEnvironment env,
-                                   Bitmap crop, List<String> keys) {
+    /** cls / rec 输入：RGB，v / 255 */
+    static final ResizeNormalize.Norm NORM = ResizeNormalize.Norm.of("RGB",
+            new float[]{0f, 0f, 0f}, new float[]{1f, 1f, 1f});
+
+    /**
+     * 会话 → 输入宽度 → 输出 [T, C]，第一次运行后记下，之后该宽度的输出直接写进复用的张量
+     * （FP32 与 fast 档位的 rec 模型输出不同，按会话分开记）
+     */
+    private static final Map<OrtSession, Map<Integer, long[]>> OUTPUT_DIMS = new ConcurrentHashMap<>();
+
+    /**
+     * 批量识别
+     * <pre>
+     *     1. 按宽高比排序，每 BATCH_SIZE 张为一批（相邻宽度接近，padding 浪费小）
+     *     2. 每行从源图按固定高度等比拉正采样，左对齐写入 [N,3,H,W]，右侧补 0
+     *     3. 一次 run，逐行 CTC 解码
+     * </pre>
+     *
+     * @return 与 crops 顺序一致的结果
+     */
+    public static List<OcrResult> runRecBatch(OrtSession recSession, OrtEnvironment env,
+                                              List<TextLine> crops, List<String> keys) throws Exception {
+        return runRecBatch(recSession, env, crops, keys, null);
+    }
 
-        OcrResult result = new OcrResult();
-        result.text = "";
-        result.score = 0f;
+    /**
+     * 批量识别，每批解码完立即把该批结果交给 listener
+     *
+     * @param listener 可为 null
+     */
+    public static List<OcrResult> runRecBatch(OrtSession recSession, OrtEnvironment env,
+                                              List<TextLine> crops, List<String> keys,
+                                              OcrResultListener listener) throws Exception {
+        int n = crops.size();
+        OcrResult[] results = new OcrResult[n];
+        for (int i = 0; i < n; i++) {
+            results[i] = emptyResult();
+        }
+        if (recSession == null || n == 0 || keys == null || keys.isEmpty()) return Arrays.asList(results);
+
+        // 按宽高比升序
+        Integer[] order = new Integer[n];
+        final float[] ratios = new float[n];
+        for (int i = 0; i < n; i++) {
+            order[i] = i;
+            TextLine crop = crops.get(i);
+            ratios[i] = crop == null ? 0f : (float) crop.width / Math.max(crop.height, 1);
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(Integer a, Integer b) {
+                return Float.compare(ratios[a], ratios[b]);
+            }
+        });
+
+        int batchSize = Math.max(1, OcrConfig.Rec.BATCH_SIZE);
+        List<Integer> batch = new ArrayList<>(batchSize);
+        OcrDeadline deadline = OcrDeadline.current();
+        for (int k = 0; k < n; k++) {
+            // 到期后剩下的批次不再识别，保持空结果
+            if (deadline.exceeded()) return Arrays.asList(results);
+            if (crops.get(order[k]) == null) continue;
+            batch.add(order[k]);
+            if (batch.size() == batchSize) {
+                runBatch(recSession, env, crops, keys, batch, results);
+                notifyBatch(listener, batch, results);
+                batch.clear();
+            }
+        }
+        if (!batch.isEmpty() && !deadline.exceeded()) {
+            runBatch(recSession, env, crops, keys, batch, results);
+            notifyBatch(listener, batch, results);
+        }
+        return Arrays.asList(results);
+    }
 
-        if (recSession == null || crop == null || keys == null || keys.isEmpty()) return result;
+    private static void notifyBatch(OcrResultListener listener, List<Integer> batch,
+                                    OcrResult[] results) throws Exception {
+        if (listener == null) return;
+        for (int index : batch) {
+            listener.onResult(index, results[index]);
+        }
+    }
 
+    private static void runBatch(OrtSession recSession, OrtEnvironment env, List<TextLine> crops,
+                                 List<String> keys, List<Integer> batch, OcrResult[] results) {
+        int inputH = MODEL_HEIGHT;
+        int count = batch.size();
+
+        // 该批宽度 = 最宽一张，PAD_MULTIPLE 对齐
+        int[] widths = new int[count];
+        int batchW = 0;
+        for (int i = 0; i < count; i++) {
+            widths[i] = targetWidth(crops.get(batch.get(i)), inputH);
+            batchW = Math.max(batchW, widths[i]);
+        }
+        batchW = bucketWidth(batchW);
+
+        long t = System.nanoTime();
+        int plane = inputH * batchW;
+        TensorArena arena = TensorArena.get();
+        long[] shape = new long[]{count, 3, inputH, batchW};
+        OrtSession.Result run = null;
+        OcrDeadline deadline = OcrDeadline.current();
+        OrtSession.RunOptions runOptions = null;
         try {
-            int inputH = MODEL_HEIGHT; // 固定高度
-            int cropW = crop.getWidth();
-            int cropH = Math.max(crop.getHeight(), 1);
-
-            int inputW = Math.max(32, Math.min(320, cropW * inputH / cropH));
-
-            Bitmap resized = Bitmap.createScaledBitmap(crop, inputW, inputH, true);
-
-            Log.d("runRec", "inputH: " + inputH + " cropW: " + cropW + " cropH: " + cropH + " inputW: " + inputW);
-
-            float[] inputData = bitmapToFloatTensor(resized);
-            long[] shape = new long[]{1, 3, inputH, inputW};
-            OnnxTensor inputTensor = OnnxTensor.createTensor(env, FloatBuffer.wrap(inputData), shape);
+            // 写入线程复用的输入张量，右侧 padding 显式清零（buffer 里是上一次的数据）
+            FloatBuffer input = arena.buffer(env, "rec_in", shape);
+            for (int i = 0; i < count; i++) {
+                int w = Math.min(widths[i], batchW);
+                int base = i * 3 * plane;
+                crops.get(batch.get(i)).sample(input, base, batchW, plane, w, inputH, NORM);
+                for (int c = 0; c < 3; c++) {
+                    for (int y = 0; y < inputH; y++) {
+                        int row = base + c * plane + y * batchW;
+                        for (int x = w; x < batchW; x++) {
+                            input.put(row + x, 0f);
+                        }
+                    }
+                }
+            }
+            OnnxTensor inputTensor = arena.tensor(env, "rec_in", shape);
+            OcrMetrics.record(OcrMetrics.Stage.REC_PREPROCESS, t);
+            Log.d("runRecBatch", "batch=" + count + " inputH=" + inputH + " batchW=" + batchW);
 
             Map<String, OnnxTensor> inputs = new HashMap<>();
             for (String name : recSession.getInputNames()) {
                 inputs.put(name, inputTensor);
             }
-
-            OrtSession.Result run = recSession.run(inputs);
-
-            float[][] recOutput = extractRecOutput(run); // [seqLen, numChars]
-
-            result = decodeCTC(recOutput, keys);
-
-            inputTensor.close();
-            run.close();
-
+            t = System.nanoTime();
+            runOptions = deadline.begin();
+            FloatBuffer probs = null;
+            Map<Integer, long[]> known = outputDims(recSession);
+            long[] dims = known.get(batchW);
+            if (dims != null) {
+                // 已知该宽度的输出形状 [T, C]：直接写进复用的输出张量
+                long[] outShape = new long[]{count, dims[0], dims[1]};
+                OnnxTensor outputTensor = arena.tensor(env, "rec_out", outShape);
+                try {
+                    recSession.run(inputs, Collections.<String>emptySet(), Collections.singletonMap(
+                            recSession.getOutputNames().iterator().next(), outputTensor), runOptions).close();
+                    probs = arena.buffer(env, "rec_out", outShape);
+                } catch (OrtException e) {
+                    if (deadline.aborted(e)) return;
+                    Log.w("runRecBatch", "rec 输出无法复用: " + e.getMessage());
+                    known.remove(batchW);
+                    dims = null;
+                }
+            }
+            if (probs == null) {
+                run = recSession.run(inputs, runOptions);
+                OnnxTensor output = (OnnxTensor) run.get(0);
+                long[] outShape = output.getInfo().getShape();
+                if (outShape.length == 3) {
+                    dims = new long[]{outShape[1], outShape[2]};
+                    known.put(batchW, dims);
+                    probs = output.getFloatBuffer();
+                }
+            }
+            OcrMetrics.record(OcrMetrics.Stage.REC_RUN, t);
+
+            if (probs != null) {
+                t = System.nanoTime();
+                int steps = (int) dims[0];
+                int classes = (int) dims[1];
+                for (int i = 0; i < count; i++) {
+                    results[batch.get(i)] = decodeCTC(probs, i * steps * classes, steps, classes, keys);
+                }
+                OcrMetrics.record(OcrMetrics.Stage.CTC_DECODE, t);
+            }
         } catch (OrtException e) {
-            e.printStackTrace();
+            // 到期中止的批次保持空结果
+            if (!deadline.aborted(e)) e.printStackTrace();
+        } finally {
+            if (run != null) run.close();
+            deadline.end(runOptions);
         }
-
-        return result;
     }
 
-    // 转 Bitmap -> float[NCHW]
-    private static float[] bitmapToFloatTensor(Bitmap bmp) {
-        int w = bmp.getWidth();
-        int h = bmp.getHeight();
-        float[] data = new float[3 * w * h];
-        int[] pixels = new int[w * h];
-        bmp.getPixels(pixels, 0, w, 0, 0, w, h);
-
-        for (int y = 0; y < h; y++) {
-            for (int x = 0; x < w; x++) {
-                int c = pixels[y * w + x];
-                int r = (c >> 16) & 0xFF;
-                int g = (c >> 8) & 0xFF;
-                int b = c & 0xFF;
-
-                int idx = y * w + x;
-                data[idx] = r / 255f;
-                data[w * h + idx] = g / 255f;
-                data[2 * w * h + idx] = b / 255f;
-            }
-        }
+    /**
+     * 固定高度下等比缩放后的宽度，不超过当前档位的宽度上限（见 QualityTier）
+     */
+    static int targetWidth(TextLine crop, int inputH) {
+        int cropH = Math.max(crop.height, 1);
+        return Math.max(32, Math.min(QualityTier.current().recMaxWidth(), crop.width * inputH / cropH));
+    }
 
-        return data;
+    /**
+     * 宽度向上对齐到 PAD_MULTIPLE，且不超过当前档位的宽度上限
+     */
+    static int bucketWidth(int w) {
+        int m = Math.max(1, OcrConfig.Rec.PAD_MULTIPLE);
+        int padded = ((w + m - 1) / m) * m;
+        return Math.min(padded, Math.max(QualityTier.current().recMaxWidth(), w));
     }
 
-    // 提取 Rec 输出为 [seqLen, numChars]
-    public static float[][] extractRecOutput(OrtSession.Result run) throws OrtException {
-        if (run == null || run.size() == 0) return new float[1][1];
-
-        OnnxTensor output = (OnnxTensor) run.get(0);
-        Object value = output.getValue();
-
-        // 常见 Rec 输出是 [1, C, T] 或 [1, T, C]，这里假设 [1, T, C]
-        if (value instanceof float[][][]) {
-            float[][][] arr = (float[][][]) value;
-            int seqLen = arr[0].length;
-            int numChars = arr[0][0].length;
-            float[][] out = new float[seqLen][numChars];
-            for (int t = 0; t < seqLen; t++) {
-                System.arraycopy(arr[0][t], 0, out[t], 0, numChars);
-            }
-            return out;
+    private static Map<Integer, long[]> outputDims(OrtSession session) {
+        Map<Integer, long[]> dims = OUTPUT_DIMS.get(session);
+        if (dims == null) {
+            Map<Integer, long[]> created = new ConcurrentHashMap<>();
+            dims = OUTPUT_DIMS.putIfAbsent(session, created);
+            if (dims == null) dims = created;
         }
+        return dims;
+    }
 
-        // fallback
-        return new float[1][1];
+    /**
+     * 会话关闭前调用，丢掉它的输出形状
+     */
+    static void forget(OrtSession session) {
+        if (session != null) OUTPUT_DIMS.remove(session);
+    }
+
+    private static OcrResult emptyResult() {
+        OcrResult r = new OcrResult();
+        r.text = "";
+        r.score = 0f;
+        return r;
     }
 
-    // CTC 解码
-    private static OcrResult decodeCTC(float[][] preds, List<String> keys) {
+    /**
+     * CTC 解码，直接读 [T, C] 行优先的概率（可以是 ORT 输出张量的 native buffer）
+     *
+     * @param offset 该样本第一个元素的下标
+     */
+    private static OcrResult decodeCTC(FloatBuffer probs, int offset, int steps, int classes, List<String> keys) {
         OcrResult r = new OcrResult();
         StringBuilder sb = new StringBuilder();
         float scoreSum = 0f;
@@ -120,13 +257,14 @@ public class RecPostProcess {
         int blankIdx = 0; // CTC blank
         int lastIdx = -1;
 
-        for (int t = 0; t < preds.length; t++) {
-            float[] timestep = preds[t];
+        for (int t = 0; t < steps; t++) {
+            int base = offset + t * classes;
             int maxIdx = 0;
-            float maxScore = timestep[0];
-            for (int i = 1; i < timestep.length; i++) {
-                if (timestep[i] > maxScore) {
-                    maxScore = timestep[i];
+            float maxScore = probs.get(base);
+            for (int i = 1; i < classes; i++) {
+                float v = probs.get(base + i);
+                if (v > maxScore) {
+                    maxScore = v;
                     maxIdx = i;
                 }
             }
@@ -0,0 +1,248 @@
+package com.ocr.pponnx.ocr;
+
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * 缩放 + 归一化，一遍写入 NCHW 张量
+ * <pre>
+ *     原来的 det 预处理：createScaledBitmap 生成缩放后的图，再 getPixels 成 int[w*h]、逐像素转成 float 写入张量，
+ *     每次请求两份整图大小的中间数组。这里按输出行双线性插值（像素中心对齐，同 cv2.INTER_LINEAR），
+ *     每行只向源图取用到的两行像素，算出的值直接做 (v/255 - mean) / std 写进张量：
+ *       - 不再生成缩放后的 Bitmap 和整图的 int[] / float[]
+ *       - 输出像素数超过阈值时按行分段，多个线程各写一段
+ *       - 输出张量比缩放后的图大时（对齐、分块检测的边缘块）其余区域补 0
+ *
+ *     只依赖 JDK，像素来源由 PixelSource 提供（Android 侧见 BitmapPixels），可以在 JVM 上单独测试
+ * </pre>
+ */
+public final class ResizeNormalize {
+
+    /**
+     * 源图像素（ARGB_8888 打包的 int），需要支持多线程同时读取
+     */
+    public interface PixelSource {
+        int width();
+
+        int height();
+
+        /**
+         * 读取第 y 行起的 rows 行到 dst（行跨度 = width()）
+         */
+        void readRows(int[] dst, int y, int rows);
+
+        /**
+         * 读取 (x, y) 起 w x h 的矩形到 dst（行跨度 = w），见 WarpSampler
+         */
+        void readRect(int[] dst, int x, int y, int w, int h);
+    }
+
+    /**
+     * 每个输出通道取源像素的哪个分量，以及 v * scale + bias 的系数
+     */
+    public static final class Norm {
+        final int[] shift = new int[3];
+        final float[] scale = new float[3];
+        final float[] bias = new float[3];
+
+        /**
+         * @param order 输出通道顺序，"RGB" 或 "BGR"
+         * @param mean  按 R、G、B 排列的均值（0~1 范围）
+         * @param std   按 R、G、B 排列的标准差
+         */
+        public static Norm of(String order, float[] mean, float[] std) {
+            Norm n = new Norm();
+            boolean bgr = "BGR".equalsIgnoreCase(order);
+            for (int c = 0; c < 3; c++) {
+                // c 为输出通道，rgb 为对应的颜色分量下标
+                int rgb = bgr ? 2 - c : c;
+                n.shift[c] = 16 - 8 * rgb;
+                float s = std[rgb] == 0 ? 1f : std[rgb];
+                n.scale[c] = 1f / (255f * s);
+                n.bias[c] = -mean[rgb] / s;
+            }
+            return n;
+        }
+    }
+
+    /** 行分段的共享线程池，线程数 = 核数 */
+    private static ExecutorService pool;
+
+    private ResizeNormalize() {
+    }
+
+    /**
+     * src 缩放到 dstW x dstH，写在 outW x outH 张量（batch 为 1）的左上角
+     *
+     * @param threads     最多使用的线程数，1 为只在调用线程上执行
+     * @param minParallel 输出像素数不小于该值时才分段并行
+     */
+    public static void run(final PixelSource src, final int dstW, final int dstH, final FloatBuffer out,
+                           final int outW, final int outH, final Norm norm, int threads, int minParallel)
+            throws Exception {
+        final int w = Math.min(dstW, outW);
+        final int h = Math.min(dstH, outH);
+        final Axis xs = new Axis(src.width(), dstW, w);
+        final Axis ys = new Axis(src.height(), dstH, h);
+        int parts = (long) w * h < minParallel ? 1 : Math.max(1, Math.min(threads, outH / 16));
+        if (parts == 1) {
+            fill(src, xs, ys, norm, out, outW, outH, w, h, 0, outH);
+            return;
+        }
+        int rowsPerPart = (outH + parts - 1) / parts;
+        List<Future<Void>> futures = new ArrayList<>(parts - 1);
+        try {
+            for (int p = 1; p < parts; p++) {
+                final int from = p * rowsPerPart;
+                final int to = Math.min(outH, from + rowsPerPart);
+                if (from >= to) break;
+                futures.add(pool().submit(new Callable<Void>() {
+                    @Override
+                    public Void call() {
+                        fill(src, xs, ys, norm, out, outW, outH, w, h, from, to);
+                        return null;
+                    }
+                }));
+            }
+            // 第一段在调用线程上做
+            fill(src, xs, ys, norm, out, outW, outH, w, h, 0, Math.min(outH, rowsPerPart));
+            for (Future<Void> f : futures) {
+                f.get();
+            }
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof RuntimeException) throw (RuntimeException) cause;
+            throw e;
+        } finally {
+            for (Future<Void> f : futures) {
+                f.cancel(false);
+            }
+        }
+    }
+
+    /**
+     * 一条边上每个输出坐标对应的两个源坐标及权重
+     */
+    private static final class Axis {
+        final int[] i0;
+        final int[] i1;
+        final float[] f;
+
+        Axis(int srcLen, int dstLen, int n) {
+            i0 = new int[n];
+            i1 = new int[n];
+            f = new float[n];
+            float ratio = (float) srcLen / dstLen;
+            for (int d = 0; d < n; d++) {
+                float s = (d + 0.5f) * ratio - 0.5f;
+                if (s < 0) s = 0;
+                int a = Math.min((int) s, srcLen - 1);
+                i0[d] = a;
+                i1[d] = Math.min(a + 1, srcLen - 1);
+                f[d] = s - a;
+            }
+        }
+    }
+
+    /**
+     * 输出行 [from, to)：三个通道平面各自按行写入
+     */
+    private static void fill(PixelSource src, Axis xs, Axis ys, Norm norm, FloatBuffer out,
+                             int outW, int outH, int w, int h, int from, int to) {
+        int srcW = src.width();
+        int[] row0 = new int[srcW];
+        int[] row1 = new int[srcW];
+        int loaded0 = -1;
+        int loaded1 = -1;
+        float[][] line = new float[3][outW];
+        int plane = outW * outH;
+        // 每个线程一个视图，绝对位置的批量写互不影响
+        FloatBuffer view = out.duplicate();
+
+        for (int y = from; y < to; y++) {
+            if (y >= h) {
+                // 超出缩放图的行全部补 0
+                for (int c = 0; c < 3; c++) {
+                    Arrays.fill(line[c], 0f);
+                }
+            } else {
+                int sy0 = ys.i0[y];
+                int sy1 = ys.i1[y];
+                // 相邻输出行经常用到同样的源行，已读过的不再读
+                if (sy0 == loaded1) {
+                    int[] tmp = row0;
+                    row0 = row1;
+                    row1 = tmp;
+                    loaded1 = loaded0;
+                    loaded0 = sy0;
+                }
+                if (sy0 != loaded0) {
+                    src.readRows(row0, sy0, 1);
+                    loaded0 = sy0;
+                }
+                if (sy1 != loaded1) {
+                    if (sy1 == loaded0) {
+                        System.arraycopy(row0, 0, row1, 0, srcW);
+                    } else {
+                        src.readRows(row1, sy1, 1);
+                    }
+                    loaded1 = sy1;
+                }
+                float fy = ys.f[y];
+                for (int c = 0; c < 3; c++) {
+                    int shift = norm.shift[c];
+                    float scale = norm.scale[c];
+                    float bias = norm.bias[c];
+                    float[] dst = line[c];
+                    for (int x = 0; x < w; x++) {
+                        int a = xs.i0[x];
+                        int b = xs.i1[x];
+                        float fx = xs.f[x];
+                        float top = ((row0[a] >> shift) & 0xFF) * (1 - fx) + ((row0[b] >> shift) & 0xFF) * fx;
+                        float bottom = ((row1[a] >> shift) & 0xFF) * (1 - fx) + ((row1[b] >> shift) & 0xFF) * fx;
+                        dst[x] = (top + (bottom - top) * fy) * scale + bias;
+                    }
+                    for (int x = w; x < outW; x++) {
+                        dst[x] = 0f;
+                    }
+                }
+            }
+            int offset = y * outW;
+            for (int c = 0; c < 3; c++) {
+                view.position(c * plane + offset);
+                view.put(line[c], 0, outW);
+            }
+        }
+    }
+
+    private static synchronized ExecutorService pool() {
+        if (pool == null) {
+            int n = Runtime.getRuntime().availableProcessors();
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(n, n, 30, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                private final AtomicInteger seq = new AtomicInteger();
+
+                @Override
+                public Thread newThread(Runnable r) {
+                    Thread t = new Thread(r, "ocr-preprocess-" + seq.incrementAndGet());
+                    t.setDaemon(true);
+                    return t;
+                }
+            });
+            executor.allowCoreThreadTimeOut(true);
+            pool = executor;
+        }
+        return pool;
+    }
+}
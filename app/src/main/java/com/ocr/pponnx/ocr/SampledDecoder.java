@@ -0,0 +1,206 @@
+package com.ocr.pponnx.ocr;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.graphics.BitmapRegionDecoder;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 大图降采样解码
+ * <pre>
+ *     det 只需要 MAX_SIDE_LEN 左右的分辨率，整张 12MP 照片按原分辨率解码既慢又占 48MB 堆：
+ *       1. inJustDecodeBounds 只读宽高
+ *       2. 按 det 输入尺寸选 2 的幂 inSampleSize（解码后仍不小于 det 输入），解码预览图做检测
+ *       3. 框映射回原图坐标后，用 BitmapRegionDecoder 只按原分辨率解码文本框所在的区域：
+ *          按框的顺序把相邻的框并成一条区域（外接矩形不超过 REGION_MAX_PIXELS），逐条解码、裁剪、释放
+ *     格式不支持区域解码（如 GIF/BMP、部分渐进式 JPEG）时退回整图解码后裁剪
+ *
+ *     需要分块检测的超大/超长图、指定了区域的请求、流水线模式仍整图解码
+ * </pre>
+ */
+class SampledDecoder {
+
+    private static final String TAG = "SampledDecoder";
+
+    private final byte[] bytes;
+    private final int width;
+    private final int height;
+
+    private SampledDecoder(byte[] bytes, int width, int height) {
+        this.bytes = bytes;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 只读取宽高，判断是否值得降采样
+     *
+     * @return 不需要或不能降采样时为 null，调用方整图解码
+     */
+    static SampledDecoder open(byte[] bytes) {
+        if (!OcrConfig.Decode.SUBSAMPLE) return null;
+        long t = System.nanoTime();
+        BitmapFactory.Options bounds = new BitmapFactory.Options();
+        bounds.inJustDecodeBounds = true;
+        BitmapFactory.decodeByteArray(bytes, 0, bytes.length, bounds);
+        OcrMetrics.record(OcrMetrics.Stage.BITMAP_DECODE, t);
+        int w = bounds.outWidth;
+        int h = bounds.outHeight;
+        if (w <= 0 || h <= 0) return null;
+        if ((long) w * h < OcrConfig.Decode.SUBSAMPLE_MIN_PIXELS) return null;
+        if (TiledDetector.shouldTile(w, h)) return null;
+        return new SampledDecoder(bytes, w, h);
+    }
+
+    /**
+     * 检测 + 识别，调用方已绑定请求的截止时间和降级档位
+     */
+    List<OcrResult> run(OnnxOcrEngine engine, OcrResultListener listener) throws Exception {
+        int[] size = OcrUtils.detInputSize(width, height);
+        int sample = sampleSize(size[0], size[1]);
+        if (sample == 1) {
+            // det 需要接近原图的分辨率（LIMIT_TYPE=min/none 等），降采样没有意义
+            Bitmap full = OnnxOcrEngine.decodeBitmap(bytes);
+            try {
+                return engine.recognize(full, engine.detect(full), listener);
+            } finally {
+                BitmapPool.release(full);
+            }
+        }
+
+        long t = System.nanoTime();
+        BitmapFactory.Options options = new BitmapFactory.Options();
+        options.inSampleSize = sample;
+        Bitmap preview = BitmapFactory.decodeByteArray(bytes, 0, bytes.length, options);
+        OcrMetrics.record(OcrMetrics.Stage.BITMAP_DECODE, t);
+        if (preview == null) throw new Exception("Failed to decode image");
+        OcrMetrics.inc(OcrMetrics.Counter.SUBSAMPLED);
+
+        List<PointF[]> boxes = engine.detect(preview);
+        float fx = (float) width / preview.getWidth();
+        float fy = (float) height / preview.getHeight();
+        Log.d(TAG, width + "x" + height + " inSampleSize=" + sample + " preview="
+                + preview.getWidth() + "x" + preview.getHeight() + " boxes=" + boxes.size());
+        BitmapPool.release(preview);
+        for (PointF[] poly : boxes) {
+            for (PointF p : poly) {
+                p.set(p.x * fx, p.y * fy);
+            }
+        }
+        if (boxes.isEmpty()) return new ArrayList<>();
+        return engine.recognizeCrops(cropRegions(engine, boxes), boxes, listener);
+    }
+
+    /**
+     * 不小于 det 输入尺寸的最大 2 的幂
+     */
+    private int sampleSize(int detW, int detH) {
+        int sample = 1;
+        while (width / (sample * 2) >= detW && height / (sample * 2) >= detH) {
+            sample *= 2;
+        }
+        return sample;
+    }
+
+    /**
+     * 按区域原分辨率解码并裁剪，返回的 crops 与 boxes 前 crops.size() 个一一对应（到期时提前结束）
+     */
+    private List<TextLine> cropRegions(OnnxOcrEngine engine, List<PointF[]> boxes) throws Exception {
+        BitmapRegionDecoder decoder = null;
+        try {
+            decoder = BitmapRegionDecoder.newInstance(bytes, 0, bytes.length, false);
+        } catch (IOException e) {
+            Log.d(TAG, "不支持区域解码，整图解码: " + e.getMessage());
+        }
+        if (decoder == null) {
+            return cropFull(engine, boxes);
+        }
+        try {
+            List<TextLine> crops = new ArrayList<>(boxes.size());
+            int start = 0;
+            while (start < boxes.size()) {
+                // 顺序相邻的框并成一条区域
+                Rect region = bounds(boxes.get(start));
+                int end = start + 1;
+                while (end < boxes.size()) {
+                    Rect next = new Rect(region);
+                    next.union(bounds(boxes.get(end)));
+                    if ((long) next.width() * next.height() > OcrConfig.Decode.REGION_MAX_PIXELS) break;
+                    region = next;
+                    end++;
+                }
+
+                long t = System.nanoTime();
+                Bitmap part = decoder.decodeRegion(region, null);
+                OcrMetrics.record(OcrMetrics.Stage.BITMAP_DECODE, t);
+                if (part == null) {
+                    Log.w(TAG, "区域解码失败，整图解码: " + region);
+                    crops.addAll(cropFull(engine, boxes.subList(start, boxes.size())));
+                    return crops;
+                }
+                List<PointF[]> local = new ArrayList<>(end - start);
+                for (int i = start; i < end; i++) {
+                    PointF[] poly = boxes.get(i);
+                    PointF[] shifted = new PointF[poly.length];
+                    for (int k = 0; k < poly.length; k++) {
+                        shifted[k] = new PointF(poly[k].x - region.left, poly[k].y - region.top);
+                    }
+                    local.add(shifted);
+                }
+                List<TextLine> partCrops = detach(engine.cropLines(part, local));
+                BitmapPool.release(part);
+                crops.addAll(partCrops);
+                if (partCrops.size() < local.size()) break;
+                start = end;
+            }
+            return crops;
+        } finally {
+            decoder.recycle();
+        }
+    }
+
+    private List<TextLine> cropFull(OnnxOcrEngine engine, List<PointF[]> boxes) throws Exception {
+        Bitmap full = OnnxOcrEngine.decodeBitmap(bytes);
+        try {
+            return detach(engine.cropLines(full, boxes));
+        } finally {
+            BitmapPool.release(full);
+        }
+    }
+
+    /**
+     * 区域图马上就要释放，行先采样成各自的小图
+     */
+    private static List<TextLine> detach(List<TextLine> lines) {
+        List<TextLine> detached = new ArrayList<>(lines.size());
+        for (TextLine line : lines) {
+            detached.add(line.detach());
+        }
+        return detached;
+    }
+
+    /**
+     * 框的外接矩形加 REGION_MARGIN，限制在图内
+     */
+    private Rect bounds(PointF[] poly) {
+        RectF r = OcrUtils.boundsOf(poly);
+        int m = OcrConfig.Decode.REGION_MARGIN;
+        Rect rect = new Rect(
+                Math.max(0, (int) Math.floor(r.left) - m),
+                Math.max(0, (int) Math.floor(r.top) - m),
+                Math.min(width, (int) Math.ceil(r.right) + m),
+                Math.min(height, (int) Math.ceil(r.bottom) + m));
+        if (rect.right <= rect.left) rect.right = Math.min(width, rect.left + 1);
+        if (rect.bottom <= rect.top) rect.bottom = Math.min(height, rect.top + 1);
+        return rect;
+    }
+}
@@ -0,0 +1,265 @@
+package com.ocr.pponnx.ocr;
+
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.Map;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+import ai.onnxruntime.OrtProvider;
+import ai.onnxruntime.OrtSession;
+
+/**
+ * 会话创建
+ * <pre>
+ *     每个模型按配置选择执行后端（cpu / xnnpack / nnapi / auto）：
+ *     指定的后端不可用或初始化失败时自动退回 cpu；
+ *     auto 对每个可用后端用合成输入实测，选最快的，同一进程内同样的线程配置只测一次
+ *
+ *     cpu 后端可使用优化后模型的 ORT 格式缓存（见 OcrConfig.Model.OPTIMIZED_CACHE）；
+ *     其它后端会把节点编译成融合节点，无法序列化，每次都从 .onnx 优化
+ * </pre>
+ */
+public class SessionFactory {
+
+    private static final String TAG = "SessionFactory";
+
+    public static final String CPU = "cpu";
+    public static final String XNNPACK = "xnnpack";
+    public static final String NNAPI = "nnapi";
+    public static final String AUTO = "auto";
+
+    /** auto 模式参与实测的后端 */
+    private static final String[] AUTO_CANDIDATES = {CPU, XNNPACK};
+
+    /** auto 模式的选择结果，key 为 模型 hash/线程配置 */
+    private static final Map<String, String> AUTO_CHOICES = new HashMap<>();
+
+    private final OrtEnvironment env;
+    private final ModelStore store;
+    private final int intraOpThreads;
+    private final int interOpThreads;
+
+    public SessionFactory(OrtEnvironment env, ModelStore store, int intraOpThreads, int interOpThreads) {
+        this.env = env;
+        this.store = store;
+        this.intraOpThreads = intraOpThreads;
+        this.interOpThreads = interOpThreads;
+    }
+
+    /**
+     * @param label      指标中的模型名
+     * @param provider   cpu / xnnpack / nnapi / auto
+     * @param benchShape auto 模式实测用的输入 shape
+     */
+    public OrtSession create(ModelStore.Model model, String label, String provider, long[] benchShape)
+            throws OrtException, IOException {
+        if (AUTO.equals(provider)) {
+            provider = choose(model, label, benchShape);
+        }
+        if (!CPU.equals(provider)) {
+            if (!isAvailable(provider)) {
+                Log.w(TAG, label + ": 执行后端 " + provider + " 不可用，使用 cpu");
+            } else {
+                try {
+                    return load(model, label, provider);
+                } catch (OrtException e) {
+                    Log.w(TAG, label + ": 执行后端 " + provider + " 初始化失败，使用 cpu", e);
+                }
+            }
+        }
+        return load(model, label, CPU);
+    }
+
+    /**
+     * 当前 ORT 包是否带有该后端
+     */
+    public static boolean isAvailable(String provider) {
+        EnumSet<OrtProvider> available = OrtEnvironment.getAvailableProviders();
+        if (CPU.equals(provider)) return true;
+        if (XNNPACK.equals(provider)) return available.contains(OrtProvider.XNNPACK);
+        if (NNAPI.equals(provider)) return available.contains(OrtProvider.NNAPI);
+        return false;
+    }
+
+    /**
+     * auto：依次用每个可用后端创建会话并实测，返回最快的
+     */
+    private String choose(ModelStore.Model model, String label, long[] benchShape) {
+        String key = model.sha256 + "/" + intraOpThreads + "/" + interOpThreads;
+        synchronized (AUTO_CHOICES) {
+            String chosen = AUTO_CHOICES.get(key);
+            if (chosen != null) return chosen;
+
+            long best = Long.MAX_VALUE;
+            chosen = CPU;
+            for (String candidate : AUTO_CANDIDATES) {
+                if (!isAvailable(candidate)) continue;
+                OrtSession session = null;
+                try {
+                    session = load(model, label, candidate);
+                    long nanos = benchmark(session, benchShape);
+                    Log.i(TAG, label + ": " + candidate + " 单次推理 " + nanos / 1000 + "us");
+                    if (nanos < best) {
+                        best = nanos;
+                        chosen = candidate;
+                    }
+                } catch (Exception e) {
+                    Log.w(TAG, label + ": " + candidate + " 实测失败", e);
+                } finally {
+                    closeQuietly(session);
+                }
+            }
+            Log.i(TAG, label + ": auto 选择 " + chosen);
+            AUTO_CHOICES.put(key, chosen);
+            return chosen;
+        }
+    }
+
+    /**
+     * 合成输入先跑一次（分配内存），再跑 AUTO_BENCH_RUNS 次取中位数
+     */
+    private long benchmark(OrtSession session, long[] shape) throws OrtException {
+        long elements = 1;
+        for (long d : shape) {
+            elements *= d;
+        }
+        FloatBuffer buffer = ByteBuffer.allocateDirect((int) (elements * 4))
+                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        OnnxTensor input = OnnxTensor.createTensor(env, buffer, shape);
+        try {
+            Map<String, OnnxTensor> inputs = Collections.singletonMap(
+                    session.getInputNames().iterator().next(), input);
+            session.run(inputs).close();
+            long[] times = new long[Math.max(1, OcrConfig.Model.AUTO_BENCH_RUNS)];
+            for (int i = 0; i < times.length; i++) {
+                long t = System.nanoTime();
+                session.run(inputs).close();
+                times[i] = System.nanoTime() - t;
+            }
+            Arrays.sort(times);
+            return times[times.length / 2];
+        } finally {
+            input.close();
+        }
+    }
+
+    /**
+     * 按文件路径创建会话（ORT mmap 模型文件），记录加载耗时
+     * <pre>
+     *     cpu 后端开启 OPTIMIZED_CACHE 时优先加载优化后的 ORT 格式缓存；没有则正常优化并顺便写出缓存
+     * </pre>
+     */
+    private OrtSession load(ModelStore.Model model, String label, String provider)
+            throws OrtException, IOException {
+        long t = System.nanoTime();
+        OrtSession session = null;
+        String source = "onnx";
+        if (OcrConfig.Model.OPTIMIZED_CACHE && CPU.equals(provider)) {
+            File cached = store.optimizedFile(model, optimizedVariant());
+            if (cached.isFile()) {
+                OrtSession.SessionOptions options = newSessionOptions(provider);
+                try {
+                    // 缓存里已经是优化过的图，不再重复优化
+                    options.setOptimizationLevel(OrtSession.SessionOptions.OptLevel.NO_OPT);
+                    session = env.createSession(cached.getAbsolutePath(), options);
+                    source = "ort-cache";
+                } catch (OrtException e) {
+                    Log.w(TAG, "优化模型缓存不可用，重新生成: " + cached.getName(), e);
+                    cached.delete();
+                } finally {
+                    options.close();
+                }
+            }
+            if (session == null) {
+                File tmp = new File(cached.getPath() + "." + System.nanoTime() + ".tmp");
+                OrtSession.SessionOptions options = newSessionOptions(provider);
+                try {
+                    options.setOptimizationLevel(OcrConfig.Model.GRAPH_OPT_LEVEL);
+                    options.setOptimizedModelFilePath(tmp.getAbsolutePath());
+                    options.addConfigEntry("session.save_model_format", "ORT");
+                    session = env.createSession(model.file.getAbsolutePath(), options);
+                } finally {
+                    options.close();
+                }
+                store.commitOptimized(model, tmp, cached);
+                source = "onnx+save";
+            }
+        } else {
+            OrtSession.SessionOptions options = newSessionOptions(provider);
+            try {
+                options.setOptimizationLevel(OcrConfig.Model.GRAPH_OPT_LEVEL);
+                session = env.createSession(model.file.getAbsolutePath(), options);
+            } finally {
+                options.close();
+            }
+        }
+        long nanos = System.nanoTime() - t;
+        OcrMetrics.recordModelLoad(label, provider, nanos);
+        Log.i(TAG, "模型 " + model.name + " 加载耗时: " + nanos / 1_000_000 + "ms (" + provider + ", " + source + ")");
+        return session;
+    }
+
+    /**
+     * 根据线程配置和执行后端创建会话选项，每个会话一份
+     */
+    private OrtSession.SessionOptions newSessionOptions(String provider) throws OrtException {
+        OrtSession.SessionOptions options = new OrtSession.SessionOptions();
+        try {
+            if (XNNPACK.equals(provider)) {
+                // XNNPACK 用自己的线程池，ORT 的 intra-op 线程只留调用线程，且不自旋抢核
+                options.setIntraOpNumThreads(1);
+                options.addConfigEntry("session.intra_op.allow_spinning", "0");
+                Map<String, String> xnn = new HashMap<>();
+                int threads = intraOpThreads > 0 ? intraOpThreads : Runtime.getRuntime().availableProcessors();
+                xnn.put("intra_op_num_threads", String.valueOf(threads));
+                options.addXnnpack(xnn);
+            } else {
+                if (intraOpThreads > 0) {
+                    options.setIntraOpNumThreads(intraOpThreads);
+                }
+                if (NNAPI.equals(provider)) {
+                    options.addNnapi();
+                }
+            }
+            if (interOpThreads > 1) {
+                // 顺序执行模式下 inter-op 线程不起作用
+                options.setExecutionMode(OrtSession.SessionOptions.ExecutionMode.PARALLEL);
+                options.setInterOpNumThreads(interOpThreads);
+            }
+        } catch (OrtException e) {
+            options.close();
+            throw e;
+        }
+        return options;
+    }
+
+    /**
+     * 优化结果与 ORT 版本、优化级别、CPU 架构有关（ALL_OPT 会做与指令集相关的布局变换）
+     */
+    private String optimizedVariant() {
+        return "ort" + env.getVersion() + "." + OcrConfig.Model.GRAPH_OPT_LEVEL.name()
+                + "." + System.getProperty("os.arch");
+    }
+
+    private static void closeQuietly(OrtSession session) {
+        if (session == null) return;
+        try {
+            session.close();
+        } catch (OrtException e) {
+            Log.w(TAG, "关闭会话失败", e);
+        }
+    }
+}
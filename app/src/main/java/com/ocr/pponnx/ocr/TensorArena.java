@@ -0,0 +1,152 @@
+package com.ocr.pponnx.ocr;
+
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import ai.onnxruntime.OnnxTensor;
+import ai.onnxruntime.OrtEnvironment;
+import ai.onnxruntime.OrtException;
+
+/**
+ * 每个线程一份的张量缓存
+ * <pre>
+ *     每个用途（det 输入/输出、cls 输入、rec 输入/输出）一块可增长的 direct 内存，
+ *     按 shape 缓存建在这块内存上的 OnnxTensor：ORT 直接读写这块内存，不再拷贝，
+ *     相同 shape 的请求也不再分配 float[] 和 OnnxTensor
+ *
+ *     借出的张量只在当前线程、下一次同用途 tensor() 之前有效，不能 close
+ *     短生命周期的线程用完后调用 releaseCurrent()
+ * </pre>
+ */
+public class TensorArena {
+
+    private static final String TAG = "TensorArena";
+
+    /** 每个用途最多缓存的 shape 数 */
+    private static final int MAX_SHAPES_PER_SLOT = 4;
+    /** 单个张量最多的 float 个数 */
+    private static final long MAX_ELEMENTS = Integer.MAX_VALUE / 4;
+
+    private static final ThreadLocal<TensorArena> LOCAL = new ThreadLocal<TensorArena>() {
+        @Override
+        protected TensorArena initialValue() {
+            return new TensorArena();
+        }
+    };
+
+    public static TensorArena get() {
+        return LOCAL.get();
+    }
+
+    /**
+     * 释放当前线程的缓存（线程结束前调用，否则 native 内存要等 GC）
+     */
+    public static void releaseCurrent() {
+        LOCAL.get().close();
+        LOCAL.remove();
+    }
+
+    private final Map<String, Slot> slots = new HashMap<>();
+
+    /**
+     * 一个用途的内存块及其上的张量
+     */
+    private static class Slot {
+        ByteBuffer memory;
+        /** 访问顺序，超过上限淘汰最久未用的 shape */
+        final LinkedHashMap<String, Entry> tensors = new LinkedHashMap<>(8, 0.75f, true);
+    }
+
+    private static class Entry {
+        final FloatBuffer buffer;
+        final OnnxTensor tensor;
+
+        Entry(FloatBuffer buffer, OnnxTensor tensor) {
+            this.buffer = buffer;
+            this.tensor = tensor;
+        }
+    }
+
+    /**
+     * 取 name 用途、指定 shape 的张量，内容为上一次使用留下的数据
+     */
+    public OnnxTensor tensor(OrtEnvironment env, String name, long[] shape) throws OrtException {
+        return entry(env, name, shape).tensor;
+    }
+
+    /**
+     * 张量背后的 direct buffer，position 已归零，写满 shape 对应的元素数
+     */
+    public FloatBuffer buffer(OrtEnvironment env, String name, long[] shape) throws OrtException {
+        FloatBuffer buffer = entry(env, name, shape).buffer;
+        buffer.clear();
+        return buffer;
+    }
+
+    private Entry entry(OrtEnvironment env, String name, long[] shape) throws OrtException {
+        Slot slot = slots.get(name);
+        if (slot == null) {
+            slot = new Slot();
+            slots.put(name, slot);
+        }
+        String key = Arrays.toString(shape);
+        Entry e = slot.tensors.get(key);
+        if (e != null) {
+            OcrMetrics.inc(OcrMetrics.Counter.BUFFER_POOL_HITS);
+            return e;
+        }
+        OcrMetrics.inc(OcrMetrics.Counter.BUFFER_POOL_MISSES);
+
+        // direct buffer 按 int 寻址，超出的 shape（超大 det 输入等）直接拒绝，不能让乘法溢出
+        long elements = 1;
+        for (long d : shape) {
+            if (d <= 0 || elements > MAX_ELEMENTS / d) {
+                throw new IllegalArgumentException("tensor too large: " + name + " " + key);
+            }
+            elements *= d;
+        }
+        int bytes = (int) (elements * 4);
+        if (slot.memory == null || slot.memory.capacity() < bytes) {
+            // 内存块变大，旧张量全部失效
+            closeTensors(slot);
+            slot.memory = ByteBuffer.allocateDirect(bytes).order(ByteOrder.nativeOrder());
+            Log.d(TAG, Thread.currentThread().getName() + " " + name + " 扩容到 " + bytes + " bytes");
+        }
+        ByteBuffer view = slot.memory.duplicate();
+        view.clear();
+        view.limit(bytes);
+        FloatBuffer buffer = view.slice().order(ByteOrder.nativeOrder()).asFloatBuffer();
+        e = new Entry(buffer, OnnxTensor.createTensor(env, buffer, shape));
+        slot.tensors.put(key, e);
+        if (slot.tensors.size() > MAX_SHAPES_PER_SLOT) {
+            Iterator<Entry> it = slot.tensors.values().iterator();
+            it.next().tensor.close();
+            it.remove();
+        }
+        return e;
+    }
+
+    private static void closeTensors(Slot slot) {
+        for (Entry e : slot.tensors.values()) {
+            e.tensor.close();
+        }
+        slot.tensors.clear();
+    }
+
+    private void close() {
+        for (Slot slot : slots.values()) {
+            closeTensors(slot);
+        }
+        slots.clear();
+    }
+}
@@ -0,0 +1,106 @@
+package com.ocr.pponnx.ocr;
+
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 待识别的一行文字：源图 + 文本框四边形
+ * <pre>
+ *     cls / rec 的输入直接从源图按四边形透视采样（WarpSampler），不再生成裁剪图、缩放图和旋转图：
+ *       - 四边形按 PaddleOCR get_rotate_crop_image 排列（左上、右上、右下、左下），倾斜的行被拉正
+ *       - 拉正后高宽比 >= 1.5 的竖排文字转 90°
+ *       - cls 判为 180° 时只调换顶点顺序
+ *     源图要在识别完成之前保持有效；需要提前释放源图时（区域解码）先 detach() 成独立的小图
+ * </pre>
+ */
+public final class TextLine {
+
+    private final Bitmap bitmap;
+    /** bitmap 是否由本行持有（release 时归还 BitmapPool） */
+    private final boolean owned;
+    /** 源图坐标，依次对应输出的左上、右上、右下、左下 */
+    private final float[] quad;
+    /** 拉正后的尺寸 */
+    public final int width;
+    public final int height;
+
+    private TextLine(Bitmap bitmap, boolean owned, float[] quad, int width, int height) {
+        this.bitmap = bitmap;
+        this.owned = owned;
+        this.quad = quad;
+        this.width = width;
+        this.height = height;
+    }
+
+    /**
+     * 已裁好的单行图片（/rec 接口），整张图作为一行，图片仍由调用方释放
+     */
+    public static TextLine of(Bitmap line) {
+        return whole(line, false);
+    }
+
+    /**
+     * src 上的文本框
+     */
+    public static TextLine warp(Bitmap src, PointF[] poly) {
+        PointF[] p = OcrUtils.orderQuad(poly);
+        float w = Math.max(OcrUtils.distance(p[0], p[1]), OcrUtils.distance(p[3], p[2]));
+        float h = Math.max(OcrUtils.distance(p[0], p[3]), OcrUtils.distance(p[1], p[2]));
+        float[] quad = new float[8];
+        // 竖排：输出转 90°（同 np.rot90），原来的右上角成为左上角
+        int first = h >= 1.5f * w ? 1 : 0;
+        for (int k = 0; k < 4; k++) {
+            PointF q = p[(first + k) % 4];
+            quad[2 * k] = q.x;
+            quad[2 * k + 1] = q.y;
+        }
+        if (first == 1) {
+            float t = w;
+            w = h;
+            h = t;
+        }
+        return new TextLine(src, false, quad, Math.max(1, Math.round(w)), Math.max(1, Math.round(h)));
+    }
+
+    private static TextLine whole(Bitmap bitmap, boolean owned) {
+        float w = bitmap.getWidth();
+        float h = bitmap.getHeight();
+        return new TextLine(bitmap, owned, new float[]{0, 0, w, 0, w, h, 0, h},
+                bitmap.getWidth(), bitmap.getHeight());
+    }
+
+    /**
+     * 转 180°（cls 判为倒置）
+     */
+    public TextLine flip() {
+        float[] q = new float[8];
+        for (int k = 0; k < 8; k++) {
+            q[k] = quad[(k + 4) % 8];
+        }
+        return new TextLine(bitmap, owned, q, width, height);
+    }
+
+    /**
+     * 采样成一张独立的 width x height 小图（来自 BitmapPool），之后可以释放源图
+     */
+    public TextLine detach() {
+        return whole(BitmapPool.warp(bitmap, quad, width, height), true);
+    }
+
+    /**
+     * 拉正、缩放到 w x h 并归一化，通道 c 第 y 行写在 out 的 offset + c * plane + y * rowStride 处
+     */
+    public void sample(FloatBuffer out, int offset, int rowStride, int plane, int w, int h,
+                       ResizeNormalize.Norm norm) {
+        WarpSampler.run(new BitmapPixels(bitmap), quad, w, h, out, offset, rowStride, plane, norm);
+    }
+
+    /**
+     * 归还 detach() 生成的小图；引用源图的行什么也不做
+     */
+    public void release() {
+        if (owned) BitmapPool.release(bitmap);
+    }
+}
@@ -0,0 +1,213 @@
+package com.ocr.pponnx.ocr;
+
+import android.graphics.Bitmap;
+import android.graphics.PointF;
+import android.graphics.RectF;
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * 分块检测
+ * <pre>
+ *     超大或超长的图整体缩到 MAX_SIDE_LEN 以内后文字太小，整图检测又要 3*W*H 的输入和同尺寸的输出。
+ *     这里先按 Det.TILE_SHORT_SIDE 限制短边（只缩小），再切成 TILE_SIZE 见方、相邻重叠 TILE_OVERLAP 的块，
+ *     逐块用同一个固定尺寸的张量检测（边缘块补 0），det 的内存与图片大小无关
+ *
+ *     合并：框映射回原图后，来自不同块的两个框
+ *       - 相交面积占较小框的一半以上（重叠带里的重复框、被切掉一截的框）
+ *       - 或都贴着块的内侧边缘、相交且在横向或纵向上基本对齐（跨接缝被切成两段的行）
+ *     合并为外接矩形
+ * </pre>
+ */
+class TiledDetector {
+
+    private static final String TAG = "TiledDetector";
+
+    /** 框离块内侧边缘不超过该像素数时视为被接缝切断 */
+    private static final float SEAM_MARGIN = 4f;
+
+    private TiledDetector() {
+    }
+
+    /**
+     * 像素数或长宽比超过阈值时分块
+     */
+    static boolean shouldTile(int w, int h) {
+        if (!OcrConfig.Det.TILED) return false;
+        int shortSide = Math.max(1, Math.min(w, h));
+        int longSide = Math.max(w, h);
+        return (long) w * h > OcrConfig.Det.TILE_MIN_PIXELS
+                || (float) longSide / shortSide > OcrConfig.Det.TILE_MIN_ASPECT;
+    }
+
+    /**
+     * 检测 src 中 (left, top) 起 w x h 的区域
+     *
+     * @return src 坐标系下的四边形
+     */
+    static List<PointF[]> detect(OnnxOcrEngine engine, Bitmap src, int left, int top, int w, int h)
+            throws Exception {
+        int tile = tileSize();
+        int overlap = Math.max(0, Math.min(OcrConfig.Det.TILE_OVERLAP, tile / 2));
+        float scale = Math.min(1f, (float) OcrConfig.Det.TILE_SHORT_SIDE / Math.min(w, h));
+        int sw = Math.max(1, Math.round(w * scale));
+        int sh = Math.max(1, Math.round(h * scale));
+        int[] xs = origins(sw, tile, overlap);
+        int[] ys = origins(sh, tile, overlap);
+
+        List<Piece> pieces = new ArrayList<>();
+        int tileIndex = 0;
+        OcrDeadline deadline = OcrDeadline.current();
+        tiles:
+        for (int ty : ys) {
+            for (int tx : xs) {
+                if (deadline.exceeded()) break tiles;
+                // 缩放后坐标系中的块 → 原图中的区域
+                int srcX = (int) (tx / scale);
+                int srcY = (int) (ty / scale);
+                int srcR = Math.min(w, (int) Math.ceil(Math.min(sw, tx + tile) / scale));
+                int srcB = Math.min(h, (int) Math.ceil(Math.min(sh, ty + tile) / scale));
+
+                // 原图区域直接缩放写进张量，不再生成块 Bitmap
+                int pw = Math.max(1, Math.min(tile, Math.round((srcR - srcX) * scale)));
+                int ph = Math.max(1, Math.min(tile, Math.round((srcB - srcY) * scale)));
+                List<PointF[]> boxes = engine.runDet(
+                        new BitmapPixels(src, left + srcX, top + srcY, srcR - srcX, srcB - srcY), pw, ph, tile, tile);
+                float fx = (float) (srcR - srcX) / pw;
+                float fy = (float) (srcB - srcY) / ph;
+                boolean innerLeft = tx > 0;
+                boolean innerTop = ty > 0;
+                boolean innerRight = tx + tile < sw;
+                boolean innerBottom = ty + tile < sh;
+                for (PointF[] poly : boxes) {
+                    RectF b = OcrUtils.boundsOf(poly);
+                    boolean seam = (innerLeft && b.left <= SEAM_MARGIN)
+                            || (innerTop && b.top <= SEAM_MARGIN)
+                            || (innerRight && b.right >= pw - 1 - SEAM_MARGIN)
+                            || (innerBottom && b.bottom >= ph - 1 - SEAM_MARGIN);
+                    for (PointF p : poly) {
+                        p.set(left + srcX + p.x * fx, top + srcY + p.y * fy);
+                    }
+                    pieces.add(new Piece(poly, tileIndex, seam));
+                }
+                tileIndex++;
+            }
+        }
+
+        List<PointF[]> merged = merge(pieces);
+        Log.d(TAG, "分块检测: " + w + "x" + h + " scale=" + scale + " tiles=" + tileIndex
+                + " boxes=" + pieces.size() + "->" + merged.size());
+        OcrMetrics.recordBoxes(merged.size());
+        return merged;
+    }
+
+    /**
+     * 块边长，对齐到 RESIZE_MULTIPLE（即 det 输入张量的固定尺寸）
+     */
+    static int tileSize() {
+        int m = Math.max(1, OcrConfig.Preprocess.RESIZE_MULTIPLE);
+        return Math.max(m, (OcrConfig.Det.TILE_SIZE / m) * m);
+    }
+
+    /**
+     * 一条边上各块的起点：步长 tile - overlap，最后一块贴齐末端
+     */
+    static int[] origins(int length, int tile, int overlap) {
+        if (length <= tile) return new int[]{0};
+        int stride = tile - overlap;
+        int n = (int) Math.ceil((double) (length - tile) / stride) + 1;
+        int[] out = new int[n];
+        for (int i = 0; i < n - 1; i++) {
+            out[i] = i * stride;
+        }
+        out[n - 1] = length - tile;
+        return out;
+    }
+
+    private static class Piece {
+        final PointF[] poly;
+        final RectF bounds;
+        final int tile;
+        final boolean seam;
+
+        Piece(PointF[] poly, int tile, boolean seam) {
+            this.poly = poly;
+            this.bounds = OcrUtils.boundsOf(poly);
+            this.tile = tile;
+            this.seam = seam;
+        }
+    }
+
+    /**
+     * 并查集合并来自不同块的同一文字，单独的框原样保留
+     */
+    private static List<PointF[]> merge(List<Piece> pieces) {
+        int n = pieces.size();
+        int[] parent = new int[n];
+        for (int i = 0; i < n; i++) {
+            parent[i] = i;
+        }
+        for (int i = 0; i < n; i++) {
+            Piece a = pieces.get(i);
+            for (int j = i + 1; j < n; j++) {
+                Piece b = pieces.get(j);
+                if (a.tile != b.tile && sameText(a, b)) {
+                    parent[find(parent, j)] = find(parent, i);
+                }
+            }
+        }
+
+        List<PointF[]> out = new ArrayList<>();
+        RectF[] groups = new RectF[n];
+        int[] counts = new int[n];
+        for (int i = 0; i < n; i++) {
+            int root = find(parent, i);
+            counts[root]++;
+            if (groups[root] == null) {
+                groups[root] = new RectF(pieces.get(i).bounds);
+            } else {
+                groups[root].union(pieces.get(i).bounds);
+            }
+        }
+        for (int i = 0; i < n; i++) {
+            if (find(parent, i) != i) continue;
+            if (counts[i] == 1) {
+                out.add(pieces.get(i).poly);
+            } else {
+                RectF r = groups[i];
+                out.add(new PointF[]{
+                        new PointF(r.left, r.top), new PointF(r.right, r.top),
+                        new PointF(r.right, r.bottom), new PointF(r.left, r.bottom)});
+            }
+        }
+        return out;
+    }
+
+    private static boolean sameText(Piece a, Piece b) {
+        RectF inter = new RectF();
+        if (!inter.setIntersect(a.bounds, b.bounds)) return false;
+        float interArea = inter.width() * inter.height();
+        float minArea = Math.min(area(a.bounds), area(b.bounds));
+        if (minArea > 0 && interArea / minArea >= 0.5f) return true;
+        if (!a.seam || !b.seam) return false;
+        float minH = Math.min(a.bounds.height(), b.bounds.height());
+        float minW = Math.min(a.bounds.width(), b.bounds.width());
+        return (minH > 0 && inter.height() / minH >= 0.5f) || (minW > 0 && inter.width() / minW >= 0.5f);
+    }
+
+    private static float area(RectF r) {
+        return r.width() * r.height();
+    }
+
+    private static int find(int[] parent, int i) {
+        while (parent[i] != i) {
+            parent[i] = parent[parent[i]];
+            i = parent[i];
+        }
+        return i;
+    }
+}
@@ -0,0 +1,165 @@
+package com.ocr.pponnx.ocr;
+
+import java.nio.FloatBuffer;
+
+/**
+ * 四边形透视采样 + 归一化，直接写入 NCHW 张量
+ * <pre>
+ *     原来 rec/cls 的输入：按外接矩形裁剪出一张图（不拉正）→ 缩放成模型高度的图 → getPixels 成 int[] → 转 float，
+ *     每行文字三次分配。这里由输出坐标反推源图坐标（单位正方形 → 四边形的透视变换，平行四边形时退化为仿射），
+ *     在源图上双线性插值后直接做 v * scale + bias 写进张量，旋转、拉正、缩放、归一化一步完成：
+ *       - 输出按 BLOCK_W x BLOCK_H 分块，每块只向源图读取它覆盖的矩形，倾斜的长行也不用读整个外接矩形
+ *       - 越出源图的坐标取边缘像素（同 cv2.BORDER_REPLICATE）
+ *       - 每个输出像素只算一次透视映射和插值权重，三个通道一起插值，逐行写入三个平面
+ *
+ *     只依赖 JDK，像素来源同 ResizeNormalize.PixelSource，可以在 JVM 上单独测试
+ * </pre>
+ */
+public final class WarpSampler {
+
+    private static final int BLOCK_W = 32;
+    private static final int BLOCK_H = 16;
+
+    /** 每个线程一份的源像素（按需增长）/ 三个通道的块内输出行 */
+    private static final ThreadLocal<Scratch> SCRATCH = new ThreadLocal<Scratch>() {
+        @Override
+        protected Scratch initialValue() {
+            return new Scratch();
+        }
+    };
+
+    private static final class Scratch {
+        int[] pixels = new int[0];
+        final float[] lines = new float[3 * BLOCK_W];
+    }
+
+    private WarpSampler() {
+    }
+
+    /**
+     * quad（x0,y0 .. x3,y3，依次对应输出的左上、右上、右下、左下）采样成 w x h，
+     * 通道 c 第 y 行写在 out 的 offset + c * plane + y * rowStride 处，只写前 w 列
+     */
+    public static void run(ResizeNormalize.PixelSource src, float[] quad, int w, int h, FloatBuffer out,
+                           int offset, int rowStride, int plane, ResizeNormalize.Norm norm) {
+        if (w <= 0 || h <= 0) return;
+        int srcW = src.width();
+        int srcH = src.height();
+        float[] m = squareToQuad(quad);
+        Scratch scratch = SCRATCH.get();
+        float[] lines = scratch.lines;
+        int shift0 = norm.shift[0], shift1 = norm.shift[1], shift2 = norm.shift[2];
+        float scale0 = norm.scale[0], scale1 = norm.scale[1], scale2 = norm.scale[2];
+        float bias0 = norm.bias[0], bias1 = norm.bias[1], bias2 = norm.bias[2];
+        FloatBuffer view = out.duplicate();
+        float[] corner = new float[2];
+
+        for (int by = 0; by < h; by += BLOCK_H) {
+            int bh = Math.min(BLOCK_H, h - by);
+            float v0 = (float) by / h;
+            float v1 = (float) (by + bh) / h;
+            for (int bx = 0; bx < w; bx += BLOCK_W) {
+                int bw = Math.min(BLOCK_W, w - bx);
+                float u0 = (float) bx / w;
+                float u1 = (float) (bx + bw) / w;
+                // 透视变换把块映射成凸四边形，四个角的外接矩形（外扩一个像素给插值）覆盖块内所有采样点
+                float minX = Float.MAX_VALUE, minY = Float.MAX_VALUE;
+                float maxX = -Float.MAX_VALUE, maxY = -Float.MAX_VALUE;
+                for (int k = 0; k < 4; k++) {
+                    map(m, (k == 1 || k == 2) ? u1 : u0, k >= 2 ? v1 : v0, corner);
+                    minX = Math.min(minX, corner[0]);
+                    minY = Math.min(minY, corner[1]);
+                    maxX = Math.max(maxX, corner[0]);
+                    maxY = Math.max(maxY, corner[1]);
+                }
+                int rx = clamp((int) Math.floor(minX) - 1, 0, srcW - 1);
+                int ry = clamp((int) Math.floor(minY) - 1, 0, srcH - 1);
+                int rw = clamp((int) Math.ceil(maxX) + 1, 0, srcW - 1) - rx + 1;
+                int rh = clamp((int) Math.ceil(maxY) + 1, 0, srcH - 1) - ry + 1;
+                if (scratch.pixels.length < rw * rh) scratch.pixels = new int[rw * rh];
+                int[] px = scratch.pixels;
+                src.readRect(px, rx, ry, rw, rh);
+
+                for (int y = by; y < by + bh; y++) {
+                    float v = (y + 0.5f) / h;
+                    for (int x = bx; x < bx + bw; x++) {
+                        map(m, (x + 0.5f) / w, v, corner);
+                        // 像素中心对齐，再换成块内坐标
+                        float sx = clamp(corner[0] - 0.5f, 0, srcW - 1) - rx;
+                        float sy = clamp(corner[1] - 0.5f, 0, srcH - 1) - ry;
+                        int x0 = clamp((int) sx, 0, rw - 1);
+                        int y0 = clamp((int) sy, 0, rh - 1);
+                        int x1 = Math.min(x0 + 1, rw - 1);
+                        int y1 = Math.min(y0 + 1, rh - 1);
+                        float fx = sx - x0;
+                        float fy = sy - y0;
+                        // 双线性权重
+                        float w11 = fx * fy;
+                        float w01 = fx - w11;
+                        float w10 = fy - w11;
+                        float w00 = 1 - fx - w10;
+                        int p00 = px[y0 * rw + x0];
+                        int p01 = px[y0 * rw + x1];
+                        int p10 = px[y1 * rw + x0];
+                        int p11 = px[y1 * rw + x1];
+                        int i = x - bx;
+                        lines[i] = lerp(p00, p01, p10, p11, shift0, w00, w01, w10, w11) * scale0 + bias0;
+                        lines[BLOCK_W + i] = lerp(p00, p01, p10, p11, shift1, w00, w01, w10, w11) * scale1 + bias1;
+                        lines[2 * BLOCK_W + i] = lerp(p00, p01, p10, p11, shift2, w00, w01, w10, w11) * scale2 + bias2;
+                    }
+                    for (int c = 0; c < 3; c++) {
+                        view.position(offset + c * plane + y * rowStride + bx);
+                        view.put(lines, c * BLOCK_W, bw);
+                    }
+                }
+            }
+        }
+    }
+
+    private static float lerp(int p00, int p01, int p10, int p11, int shift,
+                              float w00, float w01, float w10, float w11) {
+        return ((p00 >> shift) & 0xFF) * w00 + ((p01 >> shift) & 0xFF) * w01
+                + ((p10 >> shift) & 0xFF) * w10 + ((p11 >> shift) & 0xFF) * w11;
+    }
+
+    /**
+     * 单位正方形 (0,0) (1,0) (1,1) (0,1) → quad 四个顶点的透视变换系数 {a, b, c, d, e, f, g, h}：
+     * x = (a*u + b*v + c) / (g*u + h*v + 1)，y = (d*u + e*v + f) / (g*u + h*v + 1)
+     */
+    static float[] squareToQuad(float[] q) {
+        float x0 = q[0], y0 = q[1], x1 = q[2], y1 = q[3];
+        float x2 = q[4], y2 = q[5], x3 = q[6], y3 = q[7];
+        float sx = x0 - x1 + x2 - x3;
+        float sy = y0 - y1 + y2 - y3;
+        float g = 0, h = 0;
+        if (Math.abs(sx) > 1e-3f || Math.abs(sy) > 1e-3f) {
+            float dx1 = x1 - x2, dx2 = x3 - x2;
+            float dy1 = y1 - y2, dy2 = y3 - y2;
+            float den = dx1 * dy2 - dx2 * dy1;
+            // 退化的四边形按平行四边形处理
+            if (Math.abs(den) > 1e-6f) {
+                g = (sx * dy2 - dx2 * sy) / den;
+                h = (dx1 * sy - sx * dy1) / den;
+            }
+        }
+        return new float[]{
+                x1 - x0 + g * x1, x3 - x0 + h * x3, x0,
+                y1 - y0 + g * y1, y3 - y0 + h * y3, y0,
+                g, h
+        };
+    }
+
+    private static void map(float[] m, float u, float v, float[] out) {
+        float z = m[6] * u + m[7] * v + 1;
+        out[0] = (m[0] * u + m[1] * v + m[2]) / z;
+        out[1] = (m[3] * u + m[4] * v + m[5]) / z;
+    }
+
+    private static int clamp(int v, int lo, int hi) {
+        return v < lo ? lo : (v > hi ? hi : v);
+    }
+
+    private static float clamp(float v, float lo, float hi) {
+        return v < lo ? lo : (v > hi ? hi : v);
+    }
+}
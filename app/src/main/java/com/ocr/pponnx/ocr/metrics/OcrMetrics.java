@@ -0,0 +1,234 @@
+package com.ocr.pponnx.ocr.metrics;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OCR 各阶段耗时和计数，供 GET /metrics 以 Prometheus 文本格式输出
+ * <pre>
+ *     全部静态、无锁：引擎任何线程里直接 OcrMetrics.record(Stage.X, startNanos)
+ * </pre>
+ */
+public final class OcrMetrics {
+
+    private static final double[] QUANTILES = {0.5, 0.9, 0.99, 0.999};
+
+    /**
+     * 流水线阶段
+     */
+    public enum Stage {
+        BASE64_DECODE("base64_decode"),
+        BITMAP_DECODE("bitmap_decode"),
+        RESIZE("resize"),
+        TENSOR_BUILD("tensor_build"),
+        DET_RUN("det_run"),
+        DET_POST("det_post"),
+        CROP("crop"),
+        CLS("cls"),
+        REC_PREPROCESS("rec_preprocess"),
+        REC_RUN("rec_run"),
+        CTC_DECODE("ctc_decode"),
+        SERIALIZE("serialize"),
+        QUEUE_WAIT("queue_wait"),
+        PIPELINE_WAIT("pipeline_wait"),
+        TOTAL("total");
+
+        final String label;
+        final Histogram histogram = new Histogram();
+
+        Stage(String label) {
+            this.label = label;
+        }
+    }
+
+    /**
+     * 单调递增计数
+     */
+    public enum Counter {
+        REQUESTS("ocr_requests_total", "OCR requests handled"),
+        ERRORS("ocr_errors_total", "OCR requests failed"),
+        REJECTED("ocr_rejected_total", "OCR requests rejected because the queue was full"),
+        BOXES("ocr_boxes_total", "Text boxes produced by detection"),
+        CROPS_FILTERED("ocr_crops_filtered_total", "Crops dropped by REC_SCORE_THRESHOLD"),
+        SUBSAMPLED("ocr_subsampled_decodes_total", "Images detected on a subsampled decode instead of full resolution"),
+        BITMAP_POOL_HITS("ocr_bitmap_pool_hits_total", "Bitmaps served from the bitmap pool"),
+        BITMAP_POOL_MISSES("ocr_bitmap_pool_misses_total", "Bitmaps newly allocated because the pool had none of a suitable size"),
+        BUFFER_POOL_HITS("ocr_buffer_pool_hits_total", "Tensors reused from the per-thread arena"),
+        BUFFER_POOL_MISSES("ocr_buffer_pool_misses_total", "Tensors allocated or grown in the per-thread arena"),
+        TRUNCATED("ocr_truncated_total", "OCR requests that returned partial results after their deadline or cancellation"),
+        CLIENT_GONE("ocr_client_disconnects_total", "OCR requests cancelled because the client closed the connection");
+
+        final String name;
+        final String help;
+        final AtomicLong value = new AtomicLong();
+
+        Counter(String name, String help) {
+            this.name = name;
+            this.help = help;
+        }
+    }
+
+    /**
+     * 瞬时值（队列长度、缓存大小等），由持有者注册
+     */
+    public interface Gauge {
+        double value();
+    }
+
+    private static class GaugeEntry {
+        final String name;
+        final String help;
+        final Gauge gauge;
+
+        GaugeEntry(String name, String help, Gauge gauge) {
+            this.name = name;
+            this.help = help;
+            this.gauge = gauge;
+        }
+    }
+
+    /** 每张图的检测框数 */
+    private static final Histogram BOXES_PER_IMAGE = new Histogram();
+    private static final List<GaugeEntry> GAUGES = new ArrayList<>();
+    /** 各降级档位处理的请求数，下标为档位 */
+    private static final AtomicLong[] TIER_REQUESTS = new AtomicLong[8];
+    /** 模型名 → 最近一次创建会话的耗时（秒） */
+    private static final Map<String, Double> MODEL_LOAD_SECONDS = new LinkedHashMap<>();
+
+    private OcrMetrics() {
+    }
+
+    /**
+     * 记录从 startNanos（System.nanoTime()）到现在的耗时
+     */
+    public static void record(Stage stage, long startNanos) {
+        recordNanos(stage, System.nanoTime() - startNanos);
+    }
+
+    public static void recordNanos(Stage stage, long nanos) {
+        stage.histogram.record(nanos / 1000);
+    }
+
+    public static void inc(Counter counter) {
+        counter.value.incrementAndGet();
+    }
+
+    public static void add(Counter counter, long delta) {
+        counter.value.addAndGet(delta);
+    }
+
+    public static void recordBoxes(int boxes) {
+        BOXES_PER_IMAGE.record(boxes);
+        add(Counter.BOXES, boxes);
+    }
+
+    /**
+     * 记录一次按某个降级档位完成的识别
+     */
+    public static void recordTier(int tier) {
+        int i = Math.max(0, Math.min(TIER_REQUESTS.length - 1, tier));
+        synchronized (TIER_REQUESTS) {
+            if (TIER_REQUESTS[i] == null) TIER_REQUESTS[i] = new AtomicLong();
+        }
+        TIER_REQUESTS[i].incrementAndGet();
+    }
+
+    /**
+     * 记录模型在某个执行后端上创建会话的耗时，多个引擎时保留最近一次
+     */
+    public static void recordModelLoad(String model, String provider, long nanos) {
+        synchronized (MODEL_LOAD_SECONDS) {
+            MODEL_LOAD_SECONDS.put("model=\"" + model + "\",provider=\"" + provider + "\"", nanos / 1e9);
+        }
+    }
+
+    public static synchronized void registerGauge(String name, String help, Gauge gauge) {
+        for (int i = 0; i < GAUGES.size(); i++) {
+            if (GAUGES.get(i).name.equals(name)) {
+                GAUGES.set(i, new GaugeEntry(name, help, gauge));
+                return;
+            }
+        }
+        GAUGES.add(new GaugeEntry(name, help, gauge));
+    }
+
+    /**
+     * Prometheus text exposition format 0.0.4
+     */
+    public static String toPrometheus() {
+        StringBuilder sb = new StringBuilder(8 * 1024);
+
+        sb.append("# HELP ocr_stage_seconds Latency of each OCR pipeline stage\n");
+        sb.append("# TYPE ocr_stage_seconds summary\n");
+        for (Stage stage : Stage.values()) {
+            Histogram h = stage.histogram;
+            String labels = "stage=\"" + stage.label + "\"";
+            for (double q : QUANTILES) {
+                sb.append("ocr_stage_seconds{").append(labels).append(",quantile=\"").append(q).append("\"} ")
+                        .append(micros(h.quantile(q))).append('\n');
+            }
+            sb.append("ocr_stage_seconds_sum{").append(labels).append("} ").append(micros(h.sum())).append('\n');
+            sb.append("ocr_stage_seconds_count{").append(labels).append("} ").append(h.count()).append('\n');
+        }
+
+        sb.append("# HELP ocr_boxes_per_image Text boxes detected per image\n");
+        sb.append("# TYPE ocr_boxes_per_image summary\n");
+        for (double q : QUANTILES) {
+            sb.append("ocr_boxes_per_image{quantile=\"").append(q).append("\"} ")
+                    .append(BOXES_PER_IMAGE.quantile(q)).append('\n');
+        }
+        sb.append("ocr_boxes_per_image_sum ").append(BOXES_PER_IMAGE.sum()).append('\n');
+        sb.append("ocr_boxes_per_image_count ").append(BOXES_PER_IMAGE.count()).append('\n');
+
+        for (Counter c : Counter.values()) {
+            sb.append("# HELP ").append(c.name).append(' ').append(c.help).append('\n');
+            sb.append("# TYPE ").append(c.name).append(" counter\n");
+            sb.append(c.name).append(' ').append(c.value.get()).append('\n');
+        }
+
+        sb.append("# HELP ocr_tier_requests_total OCR requests handled at each quality tier (0 = full quality)\n");
+        sb.append("# TYPE ocr_tier_requests_total counter\n");
+        synchronized (TIER_REQUESTS) {
+            for (int i = 0; i < TIER_REQUESTS.length; i++) {
+                if (TIER_REQUESTS[i] == null) continue;
+                sb.append("ocr_tier_requests_total{tier=\"").append(i).append("\"} ")
+                        .append(TIER_REQUESTS[i].get()).append('\n');
+            }
+        }
+
+        synchronized (MODEL_LOAD_SECONDS) {
+            if (!MODEL_LOAD_SECONDS.isEmpty()) {
+                sb.append("# HELP ocr_model_load_seconds Time to create the ONNX session of each model\n");
+                sb.append("# TYPE ocr_model_load_seconds gauge\n");
+                for (Map.Entry<String, Double> e : MODEL_LOAD_SECONDS.entrySet()) {
+                    sb.append("ocr_model_load_seconds{").append(e.getKey()).append("} ")
+                            .append(format(e.getValue())).append('\n');
+                }
+            }
+        }
+
+        List<GaugeEntry> gauges;
+        synchronized (OcrMetrics.class) {
+            gauges = new ArrayList<>(GAUGES);
+        }
+        for (GaugeEntry g : gauges) {
+            sb.append("# HELP ").append(g.name).append(' ').append(g.help).append('\n');
+            sb.append("# TYPE ").append(g.name).append(" gauge\n");
+            sb.append(g.name).append(' ').append(format(g.gauge.value())).append('\n');
+        }
+        return sb.toString();
+    }
+
+    private static String micros(long us) {
+        return format(us / 1_000_000.0);
+    }
+
+    private static String format(double v) {
+        if (v == Math.rint(v) && Math.abs(v) < 1e15) return String.valueOf((long) v);
+        return String.format(Locale.US, "%.6f", v);
+    }
+}
@@ -0,0 +1,70 @@
+package com.ocr.pponnx.server;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * 按 Content-Length 截断的请求体流
+ * <pre>
+ *     NanoHTTPD 的 session 输入流就是 socket 流，读过 body 末尾会吃掉下一个请求；
+ *     close() 不关闭 socket，只把剩余 body 读空，保证 keep-alive 连接可复用
+ * </pre>
+ */
+public class BoundedInputStream extends FilterInputStream {
+
+    private long remaining;
+
+    public BoundedInputStream(InputStream in, long length) {
+        super(in);
+        this.remaining = length;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (remaining <= 0) return -1;
+        int c = in.read();
+        if (c >= 0) remaining--;
+        return c;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (remaining <= 0) return -1;
+        int n = in.read(b, off, (int) Math.min(len, remaining));
+        if (n > 0) remaining -= n;
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = in.skip(Math.min(n, remaining));
+        if (skipped > 0) remaining -= skipped;
+        return skipped;
+    }
+
+    @Override
+    public int available() throws IOException {
+        return (int) Math.min(in.available(), remaining);
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    public long remaining() {
+        return remaining;
+    }
+
+    /**
+     * 读空剩余 body，不关闭底层 socket 流
+     */
+    @Override
+    public void close() throws IOException {
+        byte[] skipBuf = new byte[8192];
+        while (remaining > 0) {
+            if (read(skipBuf, 0, skipBuf.length) < 0) break;
+        }
+    }
+}
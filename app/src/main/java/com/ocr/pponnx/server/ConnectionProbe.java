@@ -0,0 +1,64 @@
+package com.ocr.pponnx.server;
+
+import com.ocr.pponnx.ocr.OcrDeadline;
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+
+/**
+ * 非流式请求处理期间探测客户端是否已断开
+ * <pre>
+ *     处理期间连接线程阻塞在等结果上，不读 socket；body 读完后对端关闭连接，socket 就会读到 EOF。
+ *     探测：mark → 短超时读一个字节 → reset
+ *       - EOF / 读出错：已断开
+ *       - 超时：仍连接
+ *       - 读到数据：客户端已发来下一个请求（keep-alive），reset 后留给连接线程
+ *     body 还没读完时不探测（读到的是 body 本身）
+ * </pre>
+ */
+public final class ConnectionProbe implements OcrDeadline.Probe {
+
+    private static final int PROBE_TIMEOUT_MS = 1;
+
+    private final Socket socket;
+    /** 会话的输入流（BufferedInputStream，支持 mark/reset） */
+    private final InputStream in;
+    /** 流式读取的 body，读完之前不探测；null 表示 body 已整体读入 */
+    private final BoundedInputStream body;
+
+    public ConnectionProbe(Socket socket, InputStream in, BoundedInputStream body) {
+        this.socket = socket;
+        this.in = in;
+        this.body = body;
+    }
+
+    @Override
+    public synchronized boolean gone() {
+        if (body != null && body.remaining() > 0) return false;
+        if (socket.isClosed() || socket.isInputShutdown()) return disconnected();
+        try {
+            int timeout = socket.getSoTimeout();
+            socket.setSoTimeout(PROBE_TIMEOUT_MS);
+            try {
+                in.mark(1);
+                if (in.read() < 0) return disconnected();
+                in.reset();
+                return false;
+            } catch (SocketTimeoutException e) {
+                return false;
+            } finally {
+                socket.setSoTimeout(timeout);
+            }
+        } catch (IOException e) {
+            return disconnected();
+        }
+    }
+
+    private static boolean disconnected() {
+        OcrMetrics.inc(OcrMetrics.Counter.CLIENT_GONE);
+        return true;
+    }
+}
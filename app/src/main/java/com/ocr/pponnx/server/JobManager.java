@@ -0,0 +1,241 @@
+package com.ocr.pponnx.server;
+
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.OcrDeadline;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * 异步识别任务
+ * <pre>
+ *     POST /jobs 提交后立即返回 id，任务以较低优先级进入 OcrExecutor，
+ *     同步请求会插队到它们前面；完成的任务保留有限个数/时间供 GET /jobs/{id} 取结果
+ * </pre>
+ */
+public class JobManager {
+
+    private static final String TAG = "JobManager";
+
+    public enum Status {
+        QUEUED, RUNNING, DONE, FAILED, CANCELLED;
+
+        public String label() {
+            return name().toLowerCase(Locale.US);
+        }
+
+        public boolean isFinished() {
+            return this == DONE || this == FAILED || this == CANCELLED;
+        }
+    }
+
+    public static class Job {
+        public final String id;
+        public final int priority;
+        public final long createdAt = System.currentTimeMillis();
+        volatile Status status = Status.QUEUED;
+        volatile OcrReply reply;
+        volatile String error;
+        volatile long queueMs;
+        volatile long runMs;
+        volatile long finishedAt;
+        Future<?> future;
+        /** 取消时中止正在执行的推理 */
+        final OcrDeadline deadline;
+        /** 排队期间占用的图片字节数 */
+        final long bytes;
+        /** 运行中被取消，worker 退出时记为 CANCELLED */
+        volatile boolean cancelRequested;
+
+        Job(String id, int priority, OcrDeadline deadline, long bytes) {
+            this.id = id;
+            this.priority = priority;
+            this.deadline = deadline;
+            this.bytes = bytes;
+        }
+
+        public Status status() {
+            return status;
+        }
+
+        public OcrReply reply() {
+            return reply;
+        }
+
+        public String error() {
+            return error;
+        }
+
+        public long queueMs() {
+            return queueMs;
+        }
+
+        public long runMs() {
+            return runMs;
+        }
+    }
+
+    private final OcrExecutor executor;
+    private final int maxPending;
+    private final long maxPendingBytes;
+    private final int maxFinished;
+    private final long retentionMs;
+    /** 按提交顺序，淘汰时从最早的已完成任务开始 */
+    private final LinkedHashMap<String, Job> jobs = new LinkedHashMap<>();
+    private int pending;
+    private long pendingBytes;
+
+    /**
+     * @param maxPendingBytes 未完成任务持有的图片总字节数上限（只有一个任务时不限制）
+     */
+    public JobManager(OcrExecutor executor, int maxPending, long maxPendingBytes, int maxFinished,
+                      long retentionMs) {
+        this.executor = executor;
+        this.maxPending = Math.max(1, maxPending);
+        this.maxPendingBytes = Math.max(1, maxPendingBytes);
+        this.maxFinished = Math.max(1, maxFinished);
+        this.retentionMs = retentionMs;
+    }
+
+    public Job submit(Callable<OcrReply> task, int priority) {
+        return submit(task, priority, OcrDeadline.NONE, 0);
+    }
+
+    /**
+     * @param deadline task 识别时使用的截止时间，cancel() 时一并取消
+     * @param bytes    task 持有的图片字节数，计入 maxPendingBytes
+     * @throws RejectedExecutionException 未完成的任务数或字节数已达上限，或 executor 已关闭
+     */
+    public Job submit(final Callable<OcrReply> task, int priority, OcrDeadline deadline, long bytes) {
+        final Job job = new Job(UUID.randomUUID().toString(), priority, deadline, Math.max(0, bytes));
+        synchronized (this) {
+            evict();
+            if (pending >= maxPending) {
+                throw new RejectedExecutionException("too many pending jobs");
+            }
+            if (pending > 0 && pendingBytes + job.bytes > maxPendingBytes) {
+                throw new RejectedExecutionException("too many pending job bytes");
+            }
+            // 先提交再记账：executor 已关闭时抛出 RejectedExecutionException，不留下计数和表项；
+            // 持有锁，任务在记账完成之前不会进入 run()
+            job.future = executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() {
+                    run(job, task);
+                    return null;
+                }
+            }, priority, false);
+            pending++;
+            pendingBytes += job.bytes;
+            jobs.put(job.id, job);
+        }
+        return job;
+    }
+
+    private void run(Job job, Callable<OcrReply> task) {
+        long start = System.currentTimeMillis();
+        job.queueMs = start - job.createdAt;
+        synchronized (this) {
+            if (job.status != Status.QUEUED) return;
+            job.status = Status.RUNNING;
+        }
+        try {
+            OcrReply reply = task.call();
+            job.runMs = System.currentTimeMillis() - start;
+            if (job.cancelRequested) {
+                // 取消后得到的部分结果丢弃
+                finish(job, Status.CANCELLED, null, null);
+            } else {
+                finish(job, Status.DONE, reply, null);
+            }
+        } catch (Exception e) {
+            job.runMs = System.currentTimeMillis() - start;
+            if (job.cancelRequested) {
+                finish(job, Status.CANCELLED, null, null);
+            } else {
+                Log.e(TAG, "job " + job.id + " failed", e);
+                finish(job, Status.FAILED, null, String.valueOf(e.getMessage()));
+            }
+        }
+    }
+
+    public synchronized Job get(String id) {
+        evict();
+        return jobs.get(id);
+    }
+
+    /**
+     * 取消排队中/运行中的任务；已结束的任务直接删除
+     * <pre>
+     *     排队中的任务立即出队并记为 CANCELLED；运行中的任务只中止推理（下一个检查点或 ORT run 内部），
+     *     仍计入未完成任务，worker 退出时才记为 CANCELLED，准入控制不会低估正在进行的工作
+     * </pre>
+     *
+     * @return 不存在返回 null
+     */
+    public Job cancel(String id) {
+        Job job;
+        synchronized (this) {
+            job = jobs.get(id);
+            if (job == null) return null;
+            if (job.status.isFinished()) {
+                jobs.remove(id);
+                return job;
+            }
+            job.cancelRequested = true;
+            if (job.status == Status.QUEUED) {
+                // run() 看到状态已结束就直接返回
+                job.future.cancel(false);
+                finish(job, Status.CANCELLED, null, null);
+                return job;
+            }
+        }
+        job.deadline.cancel();
+        return job;
+    }
+
+    private synchronized void finish(Job job, Status status, OcrReply reply, String error) {
+        if (job.status.isFinished()) return;
+        job.reply = reply;
+        job.error = error;
+        job.finishedAt = System.currentTimeMillis();
+        job.status = status;
+        pending--;
+        pendingBytes -= job.bytes;
+    }
+
+    public synchronized int pendingCount() {
+        return pending;
+    }
+
+    public synchronized long pendingBytes() {
+        return pendingBytes;
+    }
+
+    /**
+     * 删除超时的已完成任务，并把已完成任务数控制在 maxFinished 以内
+     */
+    private void evict() {
+        long now = System.currentTimeMillis();
+        int finished = 0;
+        for (Job job : jobs.values()) {
+            if (job.status.isFinished()) finished++;
+        }
+        Iterator<Map.Entry<String, Job>> it = jobs.entrySet().iterator();
+        while (it.hasNext()) {
+            Job job = it.next().getValue();
+            if (!job.status.isFinished()) continue;
+            if (finished > maxFinished || now - job.finishedAt > retentionMs) {
+                it.remove();
+                finished--;
+            }
+        }
+    }
+}
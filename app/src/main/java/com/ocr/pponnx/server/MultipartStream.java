@@ -0,0 +1,216 @@
+package com.ocr.pponnx.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.Locale;
+
+/**
+ * multipart/form-data 流式解析
+ * <pre>
+ *     不落临时文件、不整体读入内存：边读 socket 边找分隔符，
+ *     只把目标 part 的内容以 InputStream 形式交给 BitmapFactory
+ * </pre>
+ */
+public class MultipartStream {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+    private static final int MAX_HEADER_BYTES = 8 * 1024;
+
+    private final InputStream in;
+    /** "\r\n--" + boundary */
+    private final byte[] delimiter;
+    private final byte[] buf;
+    private int head;
+    private int tail;
+    private boolean eof;
+    private boolean partDone;
+
+    public MultipartStream(InputStream in, String boundary) {
+        this.in = in;
+        this.delimiter = ("\r\n--" + boundary).getBytes(UTF_8);
+        this.buf = new byte[Math.max(16 * 1024, delimiter.length * 4)];
+        // 第一个分隔符前面没有 CRLF，补一个以便统一匹配
+        buf[0] = '\r';
+        buf[1] = '\n';
+        tail = 2;
+    }
+
+    /**
+     * 从 Content-Type 中取 boundary 参数
+     *
+     * @return 没有 boundary 返回 null
+     */
+    public static String parseBoundary(String contentType) {
+        if (contentType == null) return null;
+        for (String part : contentType.split(";")) {
+            String p = part.trim();
+            if (p.toLowerCase(Locale.US).startsWith("boundary=")) {
+                String b = p.substring("boundary=".length()).trim();
+                if (b.length() >= 2 && b.startsWith("\"") && b.endsWith("\"")) {
+                    b = b.substring(1, b.length() - 1);
+                }
+                return b.isEmpty() ? null : b;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * 跳到下一个 name 为 fieldName 或带 filename 的 part
+     *
+     * @return 该 part 的内容流，读到分隔符即结束；没有匹配的 part 返回 null
+     */
+    public InputStream nextPart(String fieldName) throws IOException {
+        while (true) {
+            // 跳过前导内容 / 上一个 part 的剩余数据
+            byte[] skipBuf = new byte[4096];
+            while (readPart(skipBuf, 0, skipBuf.length) >= 0) {
+                // discard
+            }
+            int c1 = readByte();
+            int c2 = readByte();
+            if (c1 < 0 || (c1 == '-' && c2 == '-')) return null; // 结束分隔符
+            String headers = readHeaders();
+            partDone = false;
+
+            String disposition = headerValue(headers, "content-disposition");
+            String name = param(disposition, "name");
+            String filename = param(disposition, "filename");
+            if (fieldName.equals(name) || filename != null) {
+                return new PartInputStream();
+            }
+        }
+    }
+
+    private class PartInputStream extends InputStream {
+        private final byte[] one = new byte[1];
+
+        @Override
+        public int read() throws IOException {
+            int n = read(one, 0, 1);
+            return n < 0 ? -1 : one[0] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            if (len == 0) return 0;
+            return readPart(b, off, len);
+        }
+    }
+
+    /**
+     * 读当前 part 的数据，遇到分隔符返回 -1（分隔符被消费）
+     */
+    private int readPart(byte[] b, int off, int len) throws IOException {
+        if (partDone) return -1;
+        while (true) {
+            int idx = indexOfDelimiter();
+            if (idx >= 0) {
+                int avail = idx - head;
+                if (avail == 0) {
+                    head += delimiter.length;
+                    partDone = true;
+                    return -1;
+                }
+                int n = Math.min(len, avail);
+                System.arraycopy(buf, head, b, off, n);
+                head += n;
+                return n;
+            }
+            // 末尾 delimiter.length - 1 字节可能是分隔符的前缀，先留着
+            int safe = tail - head - (delimiter.length - 1);
+            if (safe > 0) {
+                int n = Math.min(len, safe);
+                System.arraycopy(buf, head, b, off, n);
+                head += n;
+                return n;
+            }
+            if (eof) throw new EOFException("multipart body truncated");
+            fill();
+        }
+    }
+
+    private int readByte() throws IOException {
+        if (head >= tail) {
+            if (eof) return -1;
+            fill();
+            if (head >= tail) return -1;
+        }
+        return buf[head++] & 0xFF;
+    }
+
+    private String readHeaders() throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        byte[] crlf = {'\r', '\n', '\r', '\n'};
+        // 已匹配的 "\r\n\r\n" 长度；分隔符后的 CRLF 已读，无 header 时紧跟空行
+        int state = 2;
+        while (true) {
+            int c = readByte();
+            if (c < 0) throw new EOFException("multipart header truncated");
+            out.write(c);
+            if (out.size() > MAX_HEADER_BYTES) throw new IOException("multipart header too large");
+            if (c == crlf[state]) {
+                state++;
+                if (state == 4) break;
+            } else {
+                state = c == '\r' ? 1 : 0;
+            }
+        }
+        return new String(out.toByteArray(), UTF_8);
+    }
+
+    private void fill() throws IOException {
+        if (head > 0) {
+            System.arraycopy(buf, head, buf, 0, tail - head);
+            tail -= head;
+            head = 0;
+        }
+        int n = in.read(buf, tail, buf.length - tail);
+        if (n < 0) {
+            eof = true;
+        } else {
+            tail += n;
+        }
+    }
+
+    private int indexOfDelimiter() {
+        int last = tail - delimiter.length;
+        outer:
+        for (int i = head; i <= last; i++) {
+            for (int j = 0; j < delimiter.length; j++) {
+                if (buf[i + j] != delimiter[j]) continue outer;
+            }
+            return i;
+        }
+        return -1;
+    }
+
+    private static String headerValue(String headers, String name) {
+        for (String line : headers.split("\r\n")) {
+            int colon = line.indexOf(':');
+            if (colon > 0 && line.substring(0, colon).trim().equalsIgnoreCase(name)) {
+                return line.substring(colon + 1).trim();
+            }
+        }
+        return null;
+    }
+
+    private static String param(String headerValue, String key) {
+        if (headerValue == null) return null;
+        for (String part : headerValue.split(";")) {
+            String p = part.trim();
+            int eq = p.indexOf('=');
+            if (eq > 0 && p.substring(0, eq).trim().equalsIgnoreCase(key)) {
+                String v = p.substring(eq + 1).trim();
+                if (v.length() >= 2 && v.startsWith("\"") && v.endsWith("\"")) {
+                    v = v.substring(1, v.length() - 1);
+                }
+                return v;
+            }
+        }
+        return null;
+    }
+}
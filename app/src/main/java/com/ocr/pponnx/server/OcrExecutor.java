@@ -0,0 +1,248 @@
+package com.ocr.pponnx.server;
+
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * OCR 工作线程池
+ * <pre>
+ *     NanoHTTPD 每个连接一个线程，这里把真正调用引擎的并发数限制在 workers 个，
+ *     同步请求排队最多 queueCapacity 个，队列满直接拒绝（HTTP 429），不让请求无限堆积
+ *
+ *     队列按优先级出队（同优先级先进先出）：同步请求用 PRIORITY_INTERACTIVE，
+ *     异步任务（/jobs）优先级更低且不占同步请求的排队名额，空出的 worker 总是先给同步请求
+ * </pre>
+ */
+public class OcrExecutor {
+
+    private static final String TAG = "OcrExecutor";
+
+    /** 同步 /ocr 请求的优先级，也是允许的最高优先级 */
+    public static final int PRIORITY_INTERACTIVE = 100;
+    /** 异步任务默认优先级 */
+    public static final int PRIORITY_BULK = 0;
+
+    private final ThreadPoolExecutor pool;
+    private final int workers;
+    private final int queueCapacity;
+    /** 排队中的同步请求数（异步任务不计入） */
+    private final AtomicInteger boundedQueued = new AtomicInteger();
+    private final AtomicLong sequence = new AtomicLong();
+
+    /** 最近任务执行耗时（毫秒，EWMA），用于估算 Retry-After */
+    private volatile double avgRunMs = 0;
+    private final AtomicLong completed = new AtomicLong();
+    private final AtomicLong rejected = new AtomicLong();
+
+    public OcrExecutor(int workers, int queueCapacity) {
+        this.workers = Math.max(1, workers);
+        this.queueCapacity = Math.max(1, queueCapacity);
+        this.pool = new ThreadPoolExecutor(
+                this.workers, this.workers,
+                0L, TimeUnit.MILLISECONDS,
+                new PriorityBlockingQueue<Runnable>(),
+                new ThreadFactory() {
+                    private final AtomicInteger seq = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable r) {
+                        Thread t = new Thread(r, "ocr-worker-" + seq.incrementAndGet());
+                        t.setDaemon(true);
+                        return t;
+                    }
+                });
+        // 队列无界，先把线程都建好，任务直接进优先队列排序
+        this.pool.prestartAllCoreThreads();
+    }
+
+    /**
+     * 执行结果及排队/执行耗时
+     */
+    public static class Timed<T> {
+        public final T value;
+        public final long queueMs;
+        public final long runMs;
+
+        Timed(T value, long queueMs, long runMs) {
+            this.value = value;
+            this.queueMs = queueMs;
+            this.runMs = runMs;
+        }
+    }
+
+    /**
+     * 带优先级的任务，优先级高的先出队，相同优先级按提交顺序
+     */
+    private class PriorityTask<V> extends FutureTask<V> implements Comparable<PriorityTask<?>> {
+        final int priority;
+        final long seq;
+        final boolean bounded;
+        private final AtomicBoolean released = new AtomicBoolean();
+
+        PriorityTask(Callable<V> callable, int priority, boolean bounded) {
+            super(callable);
+            this.priority = priority;
+            this.seq = sequence.incrementAndGet();
+            this.bounded = bounded;
+        }
+
+        @Override
+        public void run() {
+            release();
+            super.run();
+        }
+
+        @Override
+        public boolean cancel(boolean mayInterruptIfRunning) {
+            boolean cancelled = super.cancel(mayInterruptIfRunning);
+            if (cancelled && pool.remove(this)) {
+                release();
+            }
+            return cancelled;
+        }
+
+        /** 离开队列时归还排队名额，只归还一次 */
+        private void release() {
+            if (bounded && released.compareAndSet(false, true)) {
+                boundedQueued.decrementAndGet();
+            }
+        }
+
+        @Override
+        public int compareTo(PriorityTask<?> o) {
+            if (priority != o.priority) return priority > o.priority ? -1 : 1;
+            return seq < o.seq ? -1 : (seq == o.seq ? 0 : 1);
+        }
+    }
+
+    /**
+     * 提交并等待完成
+     *
+     * @throws RejectedExecutionException 队列已满
+     * @throws ExecutionException         任务本身抛出的异常，见 getCause()
+     */
+    public <T> Timed<T> execute(Callable<T> task) throws ExecutionException, InterruptedException {
+        Future<Timed<T>> future = submit(task);
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            future.cancel(true);
+            throw e;
+        }
+    }
+
+    /**
+     * 提交后立即返回（流式响应等场景由调用方自己等待）
+     *
+     * @throws RejectedExecutionException 队列已满
+     */
+    public <T> Future<Timed<T>> submit(Callable<T> task) {
+        return submit(task, PRIORITY_INTERACTIVE, true);
+    }
+
+    /**
+     * @param priority 越大越先执行，范围 [PRIORITY_BULK, PRIORITY_INTERACTIVE]
+     * @param bounded  是否占用同步请求的排队名额（满了抛 RejectedExecutionException）；
+     *                 异步任务由 JobManager 自己限制数量
+     */
+    public <T> Future<Timed<T>> submit(final Callable<T> task, int priority, boolean bounded) {
+        final long submitNanos = System.nanoTime();
+        PriorityTask<Timed<T>> ft = new PriorityTask<>(new Callable<Timed<T>>() {
+            @Override
+            public Timed<T> call() throws Exception {
+                long start = System.nanoTime();
+                long queueMs = toMs(start - submitNanos);
+                T value;
+                try {
+                    value = task.call();
+                } finally {
+                    record(System.nanoTime() - start);
+                }
+                return new Timed<>(value, queueMs, toMs(System.nanoTime() - start));
+            }
+        }, clampPriority(priority), bounded);
+
+        if (bounded && boundedQueued.incrementAndGet() > queueCapacity) {
+            boundedQueued.decrementAndGet();
+            rejected.incrementAndGet();
+            OcrMetrics.inc(OcrMetrics.Counter.REJECTED);
+            Log.w(TAG, "队列已满，拒绝请求: queue=" + queueDepth() + " active=" + pool.getActiveCount());
+            throw new RejectedExecutionException("OCR queue full");
+        }
+        try {
+            pool.execute(ft);
+        } catch (RejectedExecutionException e) {
+            // 已 shutdown
+            ft.release();
+            throw e;
+        }
+        return ft;
+    }
+
+    private void record(long runNanos) {
+        long runMs = toMs(runNanos);
+        completed.incrementAndGet();
+        double avg = avgRunMs;
+        avgRunMs = avg == 0 ? runMs : avg * 0.8 + runMs * 0.2;
+    }
+
+    /**
+     * 按当前排队数和平均耗时估算多少秒后重试
+     */
+    public int retryAfterSeconds(int minSeconds) {
+        double waitMs = avgRunMs * (boundedQueued.get() + 1) / workers;
+        return Math.max(minSeconds, (int) Math.ceil(waitMs / 1000.0));
+    }
+
+    /**
+     * 按队列中的全部任务数（含异步任务）和平均耗时估算排队等待（毫秒），用于负载降级
+     */
+    public double estimatedWaitMs() {
+        return avgRunMs * queueDepth() / workers;
+    }
+
+    /**
+     * 队列中的全部任务数（含异步任务）
+     */
+    public int queueDepth() {
+        return pool.getQueue().size();
+    }
+
+    public int activeCount() {
+        return pool.getActiveCount();
+    }
+
+    public long completedCount() {
+        return completed.get();
+    }
+
+    public long rejectedCount() {
+        return rejected.get();
+    }
+
+    public void shutdown() {
+        pool.shutdownNow();
+    }
+
+    private static int clampPriority(int priority) {
+        return Math.max(PRIORITY_BULK, Math.min(PRIORITY_INTERACTIVE, priority));
+    }
+
+    private static long toMs(long nanos) {
+        return TimeUnit.NANOSECONDS.toMillis(Math.max(0, nanos));
+    }
+}
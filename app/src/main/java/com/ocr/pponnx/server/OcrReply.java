@@ -0,0 +1,38 @@
+package com.ocr.pponnx.server;
+
+import com.ocr.pponnx.ocr.OcrOptions;
+import com.ocr.pponnx.ocr.OcrResult;
+import com.ocr.pponnx.ocr.metrics.OcrMetrics;
+
+import java.util.List;
+
+/**
+ * 一次 /ocr 请求的处理结果
+ */
+public class OcrReply {
+    public List<OcrResult> results;
+    /** 是否来自结果缓存 */
+    public boolean cached;
+    /** 是否因截止时间/取消只返回了部分结果 */
+    public boolean truncated;
+    /** 识别时使用的降级档位，0 为正常质量 */
+    public int tier;
+
+    public OcrReply(List<OcrResult> results, boolean cached) {
+        this.results = results;
+        this.cached = cached;
+    }
+
+    /**
+     * 引擎按 options 识别得到的结果，记录截断与档位
+     */
+    public OcrReply(List<OcrResult> results, OcrOptions options) {
+        this(results, false);
+        this.truncated = options.deadline.truncated();
+        this.tier = options.tier.level;
+        if (truncated) {
+            OcrMetrics.inc(OcrMetrics.Counter.TRUNCATED);
+        }
+        OcrMetrics.recordTier(tier);
+    }
+}
@@ -0,0 +1,170 @@
+package com.ocr.pponnx.server;
+
+import android.graphics.PointF;
+
+import com.ocr.pponnx.ocr.OcrOptions;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.util.Map;
+
+/**
+ * 一次识别请求：图片原始字节 + 参数
+ */
+public class OcrRequest {
+
+    /** 单次请求最多的区域数 */
+    public static final int MAX_REGIONS = 64;
+
+    public final byte[] image;
+    public final OcrOptions options;
+
+    public OcrRequest(byte[] image, OcrOptions options) {
+        this.image = image;
+        this.options = options;
+    }
+
+    /**
+     * JSON body 中的参数
+     * <pre>
+     *     "rois": [[x, y, w, h], [x1, y1, x2, y2, x3, y3, x4, y4], {"x":..,"y":..,"width":..,"height":..}]
+     *     "roiDet": true   在区域内再跑检测
+     * </pre>
+     *
+     * @throws IllegalArgumentException 参数格式错误
+     */
+    public static OcrOptions parseOptions(JSONObject obj) throws JSONException {
+        OcrOptions options = new OcrOptions();
+        JSONArray rois = obj.optJSONArray("rois");
+        if (rois != null) {
+            checkCount(rois.length());
+            for (int i = 0; i < rois.length(); i++) {
+                Object roi = rois.get(i);
+                if (roi instanceof JSONArray) {
+                    JSONArray a = (JSONArray) roi;
+                    float[] v = new float[a.length()];
+                    for (int k = 0; k < v.length; k++) {
+                        v[k] = (float) a.getDouble(k);
+                    }
+                    options.regions.add(toQuad(v));
+                } else if (roi instanceof JSONObject) {
+                    JSONObject o = (JSONObject) roi;
+                    float x = (float) o.getDouble("x");
+                    float y = (float) o.getDouble("y");
+                    float w = (float) (o.has("width") ? o.getDouble("width") : o.getDouble("w"));
+                    float h = (float) (o.has("height") ? o.getDouble("height") : o.getDouble("h"));
+                    options.regions.add(toQuad(new float[]{x, y, w, h}));
+                } else {
+                    throw new IllegalArgumentException("invalid roi: " + roi);
+                }
+            }
+        }
+        options.regionDet = obj.optBoolean("roiDet", false);
+        options.profile = checkProfile(obj.optString("profile", OcrOptions.PROFILE_ACCURATE));
+        options.timeoutMs = checkTimeout(obj.optLong("timeoutMs", 0));
+        return options;
+    }
+
+    /**
+     * 二进制/multipart 上传时从 query 取参数：?rois=x,y,w,h;x,y,w,h&roiDet=1
+     *
+     * @throws IllegalArgumentException 参数格式错误
+     */
+    public static OcrOptions parseOptions(Map<String, String> parms) {
+        OcrOptions options = new OcrOptions();
+        String rois = parms.get("rois");
+        if (rois != null && !rois.trim().isEmpty()) {
+            String[] items = rois.split(";");
+            checkCount(items.length);
+            for (String item : items) {
+                if (item.trim().isEmpty()) continue;
+                String[] parts = item.split(",");
+                float[] v = new float[parts.length];
+                try {
+                    for (int k = 0; k < v.length; k++) {
+                        v[k] = Float.parseFloat(parts[k].trim());
+                    }
+                } catch (NumberFormatException e) {
+                    throw new IllegalArgumentException("invalid roi: " + item);
+                }
+                options.regions.add(toQuad(v));
+            }
+        }
+        String det = parms.get("roiDet");
+        options.regionDet = "1".equals(det) || "true".equalsIgnoreCase(det);
+        String timeout = parms.get("timeoutMs");
+        if (timeout != null && !timeout.trim().isEmpty()) {
+            options.timeoutMs = parseTimeout(timeout);
+        }
+        String profile = parms.get("profile");
+        if (profile != null && !profile.trim().isEmpty()) {
+            options.profile = checkProfile(profile.trim());
+        }
+        return options;
+    }
+
+    /**
+     * 毫秒数，header X-Timeout-Ms 与 query timeoutMs 共用
+     */
+    public static long parseTimeout(String value) {
+        try {
+            return checkTimeout(Long.parseLong(value.trim()));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid timeoutMs: " + value);
+        }
+    }
+
+    private static long checkTimeout(long ms) {
+        if (ms < 0) {
+            throw new IllegalArgumentException("invalid timeoutMs: " + ms);
+        }
+        return ms;
+    }
+
+    private static String checkProfile(String profile) {
+        if (OcrOptions.PROFILE_ACCURATE.equals(profile) || OcrOptions.PROFILE_FAST.equals(profile)) {
+            return profile;
+        }
+        throw new IllegalArgumentException("invalid profile: " + profile);
+    }
+
+    /**
+     * 4 个数为矩形 x,y,w,h；8 个数为四点坐标（左上起顺时针）
+     */
+    private static PointF[] toQuad(float[] v) {
+        for (float f : v) {
+            if (Float.isNaN(f) || Float.isInfinite(f)) {
+                throw new IllegalArgumentException("invalid roi value: " + f);
+            }
+        }
+        if (v.length == 4) {
+            float x = v[0], y = v[1], w = v[2], h = v[3];
+            if (w < 1 || h < 1) {
+                throw new IllegalArgumentException("roi width/height must be >= 1");
+            }
+            return new PointF[]{
+                    new PointF(x, y),
+                    new PointF(x + w, y),
+                    new PointF(x + w, y + h),
+                    new PointF(x, y + h)
+            };
+        }
+        if (v.length == 8) {
+            return new PointF[]{
+                    new PointF(v[0], v[1]),
+                    new PointF(v[2], v[3]),
+                    new PointF(v[4], v[5]),
+                    new PointF(v[6], v[7])
+            };
+        }
+        throw new IllegalArgumentException("roi needs 4 (x,y,w,h) or 8 (quad) numbers, got " + v.length);
+    }
+
+    private static void checkCount(int n) {
+        if (n > MAX_REGIONS) {
+            throw new IllegalArgumentException("too many rois: " + n + " > " + MAX_REGIONS);
+        }
+    }
+}
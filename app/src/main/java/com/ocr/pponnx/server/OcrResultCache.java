@@ -0,0 +1,136 @@
+package com.ocr.pponnx.server;
+
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.OcrConfig;
+import com.ocr.pponnx.ocr.OcrResult;
+
+import org.json.JSONException;
+
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * 整图识别结果缓存
+ * <pre>
+ *     key = xxHash64(图片原始字节) + 长度 + 当前生效的识别参数
+ *     LRU 淘汰，同时限制条目数和结果序列化后的总字节数；命中时连 Bitmap 解码都跳过
+ * </pre>
+ */
+public class OcrResultCache {
+
+    private static final String TAG = "OcrResultCache";
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static class Entry {
+        final List<OcrResult> results;
+        final int bytes;
+
+        Entry(List<OcrResult> results, int bytes) {
+            this.results = results;
+            this.bytes = bytes;
+        }
+    }
+
+    private final int maxEntries;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> map = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    public OcrResultCache(int maxEntries, long maxBytes) {
+        this.maxEntries = Math.max(1, maxEntries);
+        this.maxBytes = Math.max(1, maxBytes);
+    }
+
+    /**
+     * @param extra 影响结果的其它请求参数，没有传 ""
+     */
+    public static String key(byte[] image, String extra) {
+        return Long.toHexString(XxHash64.hash(image)) + ":" + image.length
+                + ":" + OcrConfig.fingerprint() + ":" + extra;
+    }
+
+    public synchronized List<OcrResult> get(String key) {
+        Entry e = map.get(key);
+        if (e == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return copyOf(e.results);
+    }
+
+    public void put(String key, List<OcrResult> results) {
+        int bytes = key.length();
+        try {
+            for (OcrResult r : results) {
+                bytes += r.toJson().toString().getBytes(UTF_8).length + 1;
+            }
+        } catch (JSONException e) {
+            return;
+        }
+        if (bytes > maxBytes) return; // 单条就超预算，不缓存
+
+        Entry entry = new Entry(Collections.unmodifiableList(copyOf(results)), bytes);
+        synchronized (this) {
+            Entry old = map.put(key, entry);
+            if (old != null) totalBytes -= old.bytes;
+            totalBytes += bytes;
+            Iterator<Map.Entry<String, Entry>> it = map.entrySet().iterator();
+            while ((map.size() > maxEntries || totalBytes > maxBytes) && it.hasNext()) {
+                Map.Entry<String, Entry> eldest = it.next();
+                if (eldest.getValue() == entry) continue;
+                totalBytes -= eldest.getValue().bytes;
+                it.remove();
+                evictions.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * 条目与调用方互不共享 OcrResult，命中的结果可以随意修改
+     */
+    private static List<OcrResult> copyOf(List<OcrResult> results) {
+        List<OcrResult> copy = new ArrayList<>(results.size());
+        for (OcrResult r : results) {
+            copy.add(r.copy());
+        }
+        return copy;
+    }
+
+    public synchronized void clear() {
+        map.clear();
+        totalBytes = 0;
+        Log.i(TAG, "缓存已清空");
+    }
+
+    public synchronized int size() {
+        return map.size();
+    }
+
+    public synchronized long bytes() {
+        return totalBytes;
+    }
+
+    public long hitCount() {
+        return hits.get();
+    }
+
+    public long missCount() {
+        return misses.get();
+    }
+
+    public long evictionCount() {
+        return evictions.get();
+    }
+}
@@ -0,0 +1,69 @@
+package com.ocr.pponnx.server;
+
+import android.util.Log;
+
+import com.ocr.pponnx.ocr.OcrConfig;
+import com.ocr.pponnx.ocr.QualityTier;
+
+/**
+ * 按负载选择降级档位
+ * <pre>
+ *     每个请求开始执行时调用 select()：按 排队数（含异步任务）× 平均耗时 / 工作线程数 估算排队等待，
+ *     超过 Degrade.STEP_DOWN_WAIT_MS 降一档，低于 STEP_UP_WAIT_MS 升档；
+ *     每 HOLD_MS 最多调整一档，避免在阈值附近来回跳
+ *
+ *     降档后单个请求变快，平均耗时和估算等待随之下降，负载消退后逐级回到 0 档。
+ *     升档按距上次调整过了几个 HOLD_MS 一次补齐：空闲一段时间后的第一个请求直接回到相应档位；
+ *     读 level()（ocr_quality_tier）时同样重新评估，没有请求时指标也不会停在降级档位
+ * </pre>
+ */
+public class QualityGovernor {
+
+    private static final String TAG = "QualityGovernor";
+
+    private final OcrExecutor executor;
+    private volatile int level;
+    private long changedAt;
+
+    public QualityGovernor(OcrExecutor executor) {
+        this.executor = executor;
+    }
+
+    /**
+     * 根据当前负载调整并返回本次请求使用的档位
+     */
+    public QualityTier select() {
+        if (!OcrConfig.Degrade.ENABLED) return QualityTier.FULL;
+        return QualityTier.of(update());
+    }
+
+    /**
+     * 当前档位（按当前负载重新评估）
+     */
+    public int level() {
+        if (!OcrConfig.Degrade.ENABLED) return 0;
+        return update();
+    }
+
+    private int update() {
+        double waitMs = executor.estimatedWaitMs();
+        synchronized (this) {
+            long now = System.currentTimeMillis();
+            long holds = (now - changedAt) / Math.max(1, OcrConfig.Degrade.HOLD_MS);
+            if (holds > 0) {
+                int next = level;
+                if (waitMs > OcrConfig.Degrade.STEP_DOWN_WAIT_MS && level < QualityTier.count() - 1) {
+                    next = level + 1;
+                } else if (waitMs < OcrConfig.Degrade.STEP_UP_WAIT_MS && level > 0) {
+                    next = (int) Math.max(0, level - holds);
+                }
+                if (next != level) {
+                    Log.i(TAG, "降级档位 " + level + " -> " + next + " (预计排队 " + Math.round(waitMs) + "ms)");
+                    level = next;
+                    changedAt = now;
+                }
+            }
+            return level;
+        }
+    }
+}